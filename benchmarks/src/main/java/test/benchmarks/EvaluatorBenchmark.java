@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test.benchmarks;
+
+import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import test.RangerValiditySchedule;
+import test.RangerValidityScheduleEvaluator;
+import test.RangerValidityScheduleValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    isApplicable() and construction of RangerValidityScheduleEvaluator, for each schedule shape and evaluation engine.
+    clusteredAccess walks nearly monotonic access times forward from each scenario's access time, as on the authorization
+    hot path; scatteredAccess picks access times at random within a year around it. Both also run on evaluators from
+    withMinuteMemo(), by the minuteMemo parameter of their Evaluators state; construction() does not take that state, so
+    is not run once per value of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+    private static final int  ACCESS_TIMES_PER_SCENARIO = 1024;
+    private static final long CLUSTER_STEP_MS           = 7;
+    private static final long SCATTER_RANGE_MS          = 365L * 24 * 60 * 60 * 1000;
+
+    @Param({ ValidityScheduleScenarios.FIXTURES, ValidityScheduleScenarios.WILDCARD, ValidityScheduleScenarios.SPARSE_DAY_OF_MONTH,
+             ValidityScheduleScenarios.SPARSE_YEAR_MONTH, ValidityScheduleScenarios.DAY_OF_WEEK_ONLY, ValidityScheduleScenarios.MULTI_RECURRENCE,
+             ValidityScheduleScenarios.NON_DEFAULT_TIMEZONE, ValidityScheduleScenarios.DST_BOUNDARY })
+    public String shape;
+
+    @Param({ "CALENDAR", "EPOCH_ARITHMETIC", "SCHEDULED_DAYS" })
+    public RangerValidityScheduleEvaluator.EvaluationEngine engine;
+
+    private RangerValiditySchedule[] validitySchedules;
+    private long[]                   accessTimes;
+    private long[][]                 scatteredTimes;
+    private long                     next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<ValidityScheduleScenarios.Scenario> scenarios = ValidityScheduleScenarios.getScenarios(shape);
+        Random random = new Random(20180101L);
+
+        validitySchedules = new RangerValiditySchedule[scenarios.size()];
+        accessTimes = new long[scenarios.size()];
+        scatteredTimes = new long[scenarios.size()][ACCESS_TIMES_PER_SCENARIO];
+
+        for (int i = 0; i < scenarios.size(); i++) {
+            ValidityScheduleScenarios.Scenario scenario = scenarios.get(i);
+
+            validitySchedules[i] = new RangerValidityScheduleValidator(scenario.validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+            accessTimes[i] = scenario.accessTime;
+            for (int j = 0; j < ACCESS_TIMES_PER_SCENARIO; j++) {
+                scatteredTimes[i][j] = scenario.accessTime + (long) ((random.nextDouble() - 0.5) * SCATTER_RANGE_MS);
+            }
+        }
+    }
+
+    // Evaluators of the benchmark's schedules, for the isApplicable() benchmarks
+    @State(Scope.Benchmark)
+    public static class Evaluators {
+        @Param({ "false", "true" })
+        public boolean minuteMemo;
+
+        private RangerValidityScheduleEvaluator[] evaluators;
+        private long                              next;
+
+        // Fresh evaluators - without remembered validity windows - and clustered access times start over, every iteration
+        @Setup(Level.Iteration)
+        public void setUp(EvaluatorBenchmark benchmark) {
+            evaluators = new RangerValidityScheduleEvaluator[benchmark.validitySchedules.length];
+
+            for (int i = 0; i < evaluators.length; i++) {
+                evaluators[i] = new RangerValidityScheduleEvaluator(benchmark.validitySchedules[i], benchmark.engine);
+
+                if (minuteMemo) {
+                    evaluators[i] = evaluators[i].withMinuteMemo();
+                }
+            }
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean clusteredAccess(Evaluators state) {
+        long index = state.next++;
+        int  scenario = (int) (index % state.evaluators.length);
+        long step = index / state.evaluators.length;
+
+        // every 8th access is a little out of order
+        return state.evaluators[scenario].isApplicable(accessTimes[scenario] + step * CLUSTER_STEP_MS - (step % 8 == 7 ? 2 * CLUSTER_STEP_MS : 0));
+    }
+
+    @Benchmark
+    public boolean scatteredAccess(Evaluators state) {
+        long index = state.next++;
+        int  scenario = (int) (index % state.evaluators.length);
+
+        return state.evaluators[scenario].isApplicable(scatteredTimes[scenario][(int) ((index / state.evaluators.length) % ACCESS_TIMES_PER_SCENARIO)]);
+    }
+
+    @Benchmark
+    public RangerValidityScheduleEvaluator construction() {
+        long index = next++;
+
+        return new RangerValidityScheduleEvaluator(validitySchedules[(int) (index % validitySchedules.length)], engine);
+    }
+}
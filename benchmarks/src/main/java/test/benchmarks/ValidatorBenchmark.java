@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test.benchmarks;
+
+import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import test.RangerValiditySchedule;
+import test.RangerValidityScheduleValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    RangerValidityScheduleValidator.validate(), on a schedule with many values in every field and on the schedules of
+    the JSON scenarios.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+    private RangerValiditySchedule   largeSchedule;
+    private RangerValiditySchedule[] fixtureSchedules;
+    private long                     next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<ValidityScheduleScenarios.Scenario> scenarios = ValidityScheduleScenarios.getScenarios(ValidityScheduleScenarios.FIXTURES);
+
+        largeSchedule = ValidityScheduleScenarios.getLargeSchedule();
+        fixtureSchedules = new RangerValiditySchedule[scenarios.size()];
+
+        for (int i = 0; i < scenarios.size(); i++) {
+            fixtureSchedules[i] = scenarios.get(i).validitySchedule;
+        }
+    }
+
+    @Benchmark
+    public RangerValiditySchedule validateLarge() {
+        return new RangerValidityScheduleValidator(largeSchedule).validate(new ArrayList<ValidationFailureDetails>());
+    }
+
+    @Benchmark
+    public RangerValiditySchedule validateFixtures() {
+        long index = next++;
+
+        return new RangerValidityScheduleValidator(fixtureSchedules[(int) (index % fixtureSchedules.length)]).validate(new ArrayList<ValidationFailureDetails>());
+    }
+}
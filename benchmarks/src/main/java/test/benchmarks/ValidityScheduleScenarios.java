@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import test.RangerValidityRecurrence;
+import test.RangerValiditySchedule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/*
+    Schedules and access times that benchmarks run against, by shape. FIXTURES are the schedules of
+    validity-schedules-valid-and-applicable.json - the same scenarios AppTest runs - each with its own access time.
+    The other shapes are single schedules, each with an access time where the shape is the interesting one.
+ */
+public final class ValidityScheduleScenarios {
+    public static final String FIXTURES             = "fixtures";
+    public static final String WILDCARD             = "wildcard";
+    public static final String SPARSE_DAY_OF_MONTH  = "sparseDayOfMonth";
+    public static final String SPARSE_YEAR_MONTH    = "sparseYearMonth";
+    public static final String DAY_OF_WEEK_ONLY     = "dayOfWeekOnly";
+    public static final String MULTI_RECURRENCE     = "multiRecurrence";
+    public static final String NON_DEFAULT_TIMEZONE = "nonDefaultTimeZone";
+    public static final String DST_BOUNDARY         = "dstBoundary";
+
+    public static final String FIXTURES_RESOURCE = "/validity-schedules-valid-and-applicable.json";
+
+    public static final class Scenario {
+        public final RangerValiditySchedule validitySchedule;
+        public final long                   accessTime;
+
+        Scenario(RangerValiditySchedule validitySchedule, long accessTime) {
+            this.validitySchedule = validitySchedule;
+            this.accessTime = accessTime;
+        }
+    }
+
+    // Shape of the JSON test-cases; only what benchmarks need
+    static class TestCase {
+        String name;
+        List<RangerValiditySchedule> validitySchedules;
+        Date accessTime;
+    }
+
+    private ValidityScheduleScenarios() {
+    }
+
+    public static List<Scenario> getScenarios(String shape) {
+        final List<Scenario> ret = new ArrayList<>();
+        final long accessTime = new GregorianCalendar(2018, Calendar.MAY, 16, 10, 30, 15).getTimeInMillis();
+
+        switch (shape) {
+            case FIXTURES:
+                for (TestCase testCase : readTestCases(FIXTURES_RESOURCE)) {
+                    for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                        ret.add(new Scenario(validitySchedule, testCase.accessTime.getTime()));
+                    }
+                }
+                break;
+
+            case WILDCARD:
+                ret.add(new Scenario(getSchedule(null, getRecurrence("0", "*", "*", "*", "*", "*", 0, 0, 30)), accessTime));
+                break;
+
+            case SPARSE_DAY_OF_MONTH:
+                // on May 1st, the closest past 31st is at the end of March
+                ret.add(new Scenario(getSchedule(null, getRecurrence("0", "9", "29-31", "", "*", "*", 1, 0, 0)), new GregorianCalendar(2018, Calendar.MAY, 1, 10, 30, 15).getTimeInMillis()));
+                break;
+
+            case SPARSE_YEAR_MONTH:
+                // in May 2018, the closest past scheduled time is in December 2017, five months and a year back
+                ret.add(new Scenario(getSchedule(null, getRecurrence("0", "9", "*", "", "12", "2017", 0, 8, 0)), accessTime));
+                break;
+
+            case DAY_OF_WEEK_ONLY:
+                ret.add(new Scenario(getSchedule(null, getRecurrence("15", "8", "", "2, 4, 6", "*", "*", 0, 9, 0)), accessTime));
+                break;
+
+            case MULTI_RECURRENCE:
+                ret.add(new Scenario(getSchedule(null,
+                        getRecurrence("0", "22", "*", "", "*", "*", 0, 2, 0),
+                        getRecurrence("30", "6, 18", "", "1, 7", "*", "*", 0, 1, 0),
+                        getRecurrence("0", "0", "1, 15", "", "1-6", "2018", 0, 12, 0),
+                        getRecurrence("0, 15, 30, 45", "9-17", "*", "", "*", "*", 0, 0, 10)), accessTime));
+                break;
+
+            case NON_DEFAULT_TIMEZONE:
+                ret.add(new Scenario(getSchedule(getNonDefaultTimeZone(), getRecurrence("0", "9", "*", "2-6", "*", "*", 0, 8, 0)), accessTime));
+                break;
+
+            case DST_BOUNDARY: {
+                // hourly window across the US spring-forward of 2018-03-11, in that zone
+                GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("America/Los_Angeles"));
+                calendar.clear();
+                calendar.set(2018, Calendar.MARCH, 11, 3, 10, 15);
+                ret.add(new Scenario(getSchedule("America/Los_Angeles", getRecurrence("0", "*", "*", "", "*", "*", 0, 0, 45)), calendar.getTimeInMillis()));
+                break;
+            }
+
+            default:
+                throw new IllegalArgumentException("unknown shape:[" + shape + "]");
+        }
+
+        return ret;
+    }
+
+    // A valid schedule with many values in every field, for validation; the validator allows only one range per field
+    public static RangerValiditySchedule getLargeSchedule() {
+        StringBuilder minutes = new StringBuilder();
+
+        for (int minute = 0; minute < 60; minute += 2) {
+            minutes.append(minutes.length() == 0 ? "" : ", ").append(minute);
+        }
+
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            recurrences.add(getRecurrence(minutes.toString(), "0, 2, 4, 6, 9-17, 20, 22", "1, 3, 5, 7, 9, 11, 13, 15-25, 28, 30", "1, 3-5, 7", "1, 3, 5-9, 11, 12", "2017, 2019, 2021, 2025-2100", i, 1, 0));
+        }
+        return getSchedule("America/New_York", recurrences.toArray(new RangerValidityRecurrence[0]));
+    }
+
+    private static RangerValiditySchedule getSchedule(String timeZone, RangerValidityRecurrence... recurrences) {
+        List<RangerValidityRecurrence> list = new ArrayList<>();
+
+        Collections.addAll(list, recurrences);
+
+        return new RangerValiditySchedule("20170101-00:00", "20300101-00:00", timeZone, list);
+    }
+
+    private static RangerValidityRecurrence getRecurrence(String minute, String hour, String dayOfMonth, String dayOfWeek, String month, String year, int days, int hours, int minutes) {
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule(minute, hour, dayOfMonth, dayOfWeek, month, year);
+
+        return new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(days, hours, minutes, null));
+    }
+
+    private static String getNonDefaultTimeZone() {
+        return TimeZone.getDefault().getRawOffset() == TimeZone.getTimeZone("Asia/Kolkata").getRawOffset() ? "Europe/Berlin" : "Asia/Kolkata";
+    }
+
+    private static List<TestCase> readTestCases(String resource) {
+        Gson gson = new GsonBuilder().setDateFormat("yyyyMMdd-HH:mm:ss.SSSZ").create();
+        Type listType = new TypeToken<List<TestCase>>() {}.getType();
+
+        try (InputStream inStream = ValidityScheduleScenarios.class.getResourceAsStream(resource);
+             Reader reader = new InputStreamReader(inStream, Charset.forName("UTF-8"))) {
+            return gson.fromJson(reader, listType);
+        } catch (IOException exception) {
+            throw new IllegalStateException("failed to read " + resource, exception);
+        }
+    }
+}
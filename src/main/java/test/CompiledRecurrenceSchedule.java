@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Immutable compiled form of a RecurrenceSchedule: each field string is lexed once, into comma-separated terms of up to
+    two dash-separated parts, each part a wildcard or a number. Both RangerValidityScheduleValidator and
+    RangerRecurrenceEvaluator work from this form - the validator reports each field's failures, normalized value and
+    scheduling-period estimate, and the evaluator takes each field's ScheduledTimeMask.
+
+    Whitespace is ignored, and so are empty terms and parts, like StringUtils.split() does. Field values are checked
+    against the bounds users write them in, so months are 1 to 12; masks hold Calendar values, so months are 0 to 11.
+    A part that is neither a wildcard nor a number fails as Integer.valueOf() would, but only when used: the validator
+    throws the field's getFormatException() after its failures, and getMask() throws it for the evaluator.
+ */
+public final class CompiledRecurrenceSchedule {
+    private static final RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec[] FIELDS = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values();
+
+    private final CompiledField[] fields = new CompiledField[FIELDS.length];
+
+    private CompiledRecurrenceSchedule(RangerValidityRecurrence.RecurrenceSchedule schedule) {
+        for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field : FIELDS) {
+            fields[field.ordinal()] = new CompiledField(field, schedule.getFieldValue(field));
+        }
+    }
+
+    public static CompiledRecurrenceSchedule compile(RangerValidityRecurrence.RecurrenceSchedule schedule) {
+        return new CompiledRecurrenceSchedule(schedule);
+    }
+
+    public CompiledField getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field) {
+        return fields[field.ordinal()];
+    }
+
+    // Schedule of the normalized value of each field
+    public RangerValidityRecurrence.RecurrenceSchedule getNormalizedSchedule() {
+        RangerValidityRecurrence.RecurrenceSchedule ret = new RangerValidityRecurrence.RecurrenceSchedule();
+
+        for (CompiledField field : fields) {
+            ret.setFieldValue(field.field, field.normalizedValue);
+        }
+        return ret;
+    }
+
+    // Whether schedule has the normalized value of every field - as the schedule from getNormalizedSchedule() does, unless changed since
+    public boolean isNormalizedFormOf(RangerValidityRecurrence.RecurrenceSchedule schedule) {
+        boolean ret = schedule != null;
+
+        for (int i = 0; ret && i < fields.length; i++) {
+            ret = StringUtils.equals(fields[i].normalizedValue, schedule.getFieldValue(fields[i].field));
+        }
+        return ret;
+    }
+
+    public static final class CompiledField {
+        private static final int NONE     = 0;
+        private static final int WILDCARD = 1;
+        private static final int NUMBER   = 2;
+        private static final int INVALID  = 3;
+
+        private final RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field;
+        private final boolean                   isBlank;
+        private final boolean                   hasInvalidCharacters;
+        private final Term[]                    terms;
+        private final String                    normalizedValue;
+        private final List<String>              failures;
+        private final boolean                   isValid;
+        private final String                    periodEstimate;
+        private final NumberFormatException     formatException;
+        private final ScheduledTimeMask         mask;
+        private final NumberFormatException     maskException;
+
+        CompiledField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field, String value) {
+            this.field = field;
+            this.isBlank = StringUtils.isBlank(value);
+
+            // Lex: drop whitespace, then split into terms at ',' and each term into parts at '-'
+            final int length = value == null ? 0 : value.length();
+            final char[] text = new char[length];
+            final List<Term> terms = new ArrayList<>();
+            int textLength = 0;
+            boolean hasInvalidCharacters = false;
+
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+
+                if (!Character.isWhitespace(c)) {
+                    if (!Character.isDigit(c) && field.specialChars.indexOf(c) < 0) {
+                        hasInvalidCharacters = true;
+                    }
+                    text[textLength++] = c;
+                }
+            }
+            for (int termStart = 0; termStart < textLength; ) {
+                int termEnd = termStart;
+
+                while (termEnd < textLength && text[termEnd] != ',') {
+                    termEnd++;
+                }
+                if (termEnd > termStart) {
+                    terms.add(new Term(text, termStart, termEnd));
+                }
+                termStart = termEnd + 1;
+            }
+
+            this.hasInvalidCharacters = hasInvalidCharacters;
+            this.terms = terms.toArray(new Term[0]);
+            this.normalizedValue = getNormalizedValue(this.terms);
+
+            // Validate: failures are found, and reported, in the order the validator always has
+            final int minValidValue = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.minimum + 1 : field.minimum;
+            final int maxValidValue = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.maximum + 1 : field.maximum;
+            final List<String> failures = new ArrayList<>();
+            final List<int[]> ranges = new ArrayList<>();
+            final List<Integer> values = new ArrayList<>();
+            NumberFormatException formatException = null;
+            boolean isValid = !hasInvalidCharacters;
+            boolean isWildcard = false;
+
+            if (isValid) {
+                try {
+                    for (Term term : this.terms) {
+                        if (term.isDashDelimited || term.partCount > 2) {
+                            failures.add("incorrect range spec");
+                            isValid = false;
+                        } else if (term.partCount == 2) {
+                            int lower = minValidValue, upper = maxValidValue;
+
+                            if (term.lowerKind != WILDCARD) {
+                                lower = term.getLower();
+                                if (lower < minValidValue || lower > maxValidValue) {
+                                    failures.add("incorrect lower range value");
+                                    isValid = false;
+                                }
+                            } else {
+                                isWildcard = true;
+                            }
+                            if (term.upperKind != WILDCARD) {
+                                upper = term.getUpper();
+                                if (lower < minValidValue || upper > maxValidValue) {
+                                    failures.add("incorrect upper range value");
+                                    isValid = false;
+                                }
+                            } else {
+                                isWildcard = true;
+                            }
+                            if (isValid) {
+                                if (lower >= upper) {
+                                    failures.add("incorrect range");
+                                    isValid = false;
+                                } else {
+                                    isWildcard = true;
+                                    for (int[] range : ranges) {
+                                        if (range[0] == lower || range[1] == upper) {
+                                            failures.add("duplicate range");
+                                            isValid = false;
+                                            break;
+                                        }
+                                    }
+                                    if (isValid) {
+                                        ranges.add(new int[] { lower, upper });
+                                    }
+                                }
+                            }
+                        } else if (term.lowerKind != WILDCARD) {
+                            int lower = term.getLower();
+
+                            if (lower < minValidValue || lower > maxValidValue) {
+                                failures.add("incorrect value");
+                                isValid = false;
+                            } else {
+                                values.add(lower);
+                            }
+                        } else {
+                            isWildcard = true;
+                        }
+                    }
+
+                    // Every later range that ends after an earlier one is counted as overlapping it
+                    ranges.sort((me, other) -> me[0] != other[0] ? Integer.compare(me[0], other[0]) : Integer.compare(me[1], other[1]));
+                    for (int i = 0; i < ranges.size(); i++) {
+                        for (int j = i + 1; j < ranges.size(); j++) {
+                            if (ranges.get(i)[1] < ranges.get(j)[1]) {
+                                failures.add("overlapping range value");
+                                isValid = false;
+                            }
+                        }
+                    }
+                } catch (NumberFormatException exception) {
+                    formatException = exception;
+                    isValid = false;
+                }
+            }
+
+            this.failures = Collections.unmodifiableList(failures);
+            this.isValid = isValid;
+            this.formatException = formatException;
+            this.periodEstimate = isValid ? getPeriodEstimate(isWildcard, values, minValidValue, maxValidValue) : null;
+
+            // Compile into a mask of Calendar values
+            ScheduledTimeMask mask = null;
+            NumberFormatException maskException = null;
+
+            try {
+                mask = getMask(field, this.terms);
+            } catch (NumberFormatException exception) {
+                maskException = exception;
+            }
+            this.mask = mask;
+            this.maskException = maskException;
+        }
+
+        public RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec getField() { return field; }
+        public boolean isBlank() { return isBlank; }
+        public boolean hasInvalidCharacters() { return hasInvalidCharacters; }
+        public String getNormalizedValue() { return normalizedValue; }
+
+        // Failures of the field value, excluding invalid characters; empty when it has any
+        public List<String> getFailures() { return failures; }
+
+        public boolean isValid() { return isValid; }
+
+        // Set when a number failed to parse, after getFailures() were found
+        public NumberFormatException getFormatException() { return formatException; }
+
+        /*
+        Smallest gap between scheduled values, WILDCARD when any range or wildcard is scheduled, or null when the field is
+        blank or not valid; see RangerValidityScheduleValidator.validateIntervalDuration()
+         */
+        public String getPeriodEstimate() { return periodEstimate; }
+
+        public ScheduledTimeMask getMask() {
+            if (maskException != null) {
+                throw maskException;
+            }
+            return mask;
+        }
+
+        private static String getNormalizedValue(Term[] terms) {
+            String ret = null;
+
+            if (terms.length > 0) {
+                String[] texts = new String[terms.length];
+
+                for (int i = 0; i < terms.length; i++) {
+                    texts[i] = terms[i].text;
+                }
+                Arrays.sort(texts);
+                ret = StringUtils.join(texts, ",");
+            }
+            return ret;
+        }
+
+        private static String getPeriodEstimate(boolean isWildcard, List<Integer> values, int minValidValue, int maxValidValue) {
+            String ret = null;
+
+            if (isWildcard) {
+                ret = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+            } else if (values.size() > 0) {
+                int minDiff = maxValidValue + 1;
+
+                if (values.size() > 1) {
+                    Collections.sort(values);
+
+                    minDiff = values.get(0) + (maxValidValue - minValidValue + 1) - values.get(values.size() - 1);
+                    for (int i = 0; i < values.size() - 1; i++) {
+                        minDiff = Math.min(minDiff, values.get(i + 1) - values.get(i));
+                    }
+                }
+                ret = Integer.toString(minDiff);
+            }
+            return ret;
+        }
+
+        private static ScheduledTimeMask getMask(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field, Term[] terms) {
+            final int offset = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? 1 : 0;
+            ScheduledTimeMask.Builder builder = new ScheduledTimeMask.Builder(field.minimum);
+
+            for (Term term : terms) {
+                if (term.partCount == 0) {
+                    continue; // only dashes
+                }
+                if (term.lowerKind == WILDCARD || (term.partCount > 1 && term.upperKind == WILDCARD)) {
+                    builder.addAll();
+                    break;
+                } else if (term.partCount == 1) {
+                    builder.add(term.getLower() - offset);
+                } else {
+                    builder.addRange(term.getLower() - offset, term.getUpper() - offset);
+                }
+            }
+            return builder.build();
+        }
+
+        /*
+        One comma-separated term, with its whitespace removed. Only the first two parts are kept, as no more are used.
+         */
+        private static final class Term {
+            final String  text;
+            final boolean isDashDelimited; // starts or ends with '-'
+            final int     partCount;
+            final int     lowerKind;
+            final int     lowerValue;
+            final String  lowerText;
+            final int     upperKind;
+            final int     upperValue;
+            final String  upperText;
+
+            Term(char[] text, int start, int end) {
+                int partCount = 0;
+                int[] kinds = { NONE, NONE };
+                int[] values = new int[2];
+                String[] texts = new String[2];
+
+                for (int partStart = start; partStart < end; ) {
+                    int partEnd = partStart;
+
+                    while (partEnd < end && text[partEnd] != '-') {
+                        partEnd++;
+                    }
+                    if (partEnd > partStart) {
+                        if (partCount < 2) {
+                            kinds[partCount] = getKind(text, partStart, partEnd);
+                            values[partCount] = kinds[partCount] == NUMBER ? getValue(text, partStart, partEnd) : 0;
+                            texts[partCount] = kinds[partCount] == INVALID || values[partCount] < 0 ? new String(text, partStart, partEnd - partStart) : null;
+                        }
+                        partCount++;
+                    }
+                    partStart = partEnd + 1;
+                }
+
+                this.text = new String(text, start, end - start);
+                this.isDashDelimited = text[start] == '-' || text[end - 1] == '-';
+                this.partCount = partCount;
+                this.lowerKind = kinds[0];
+                this.lowerValue = values[0];
+                this.lowerText = texts[0];
+                this.upperKind = kinds[1];
+                this.upperValue = values[1];
+                this.upperText = texts[1];
+            }
+
+            int getLower() {
+                return getNumber(lowerKind, lowerValue, lowerText);
+            }
+
+            int getUpper() {
+                return getNumber(upperKind, upperValue, upperText);
+            }
+
+            private static int getNumber(int kind, int value, String text) {
+                if (kind != NUMBER || value < 0) {
+                    throw new NumberFormatException("For input string: \"" + text + "\"");
+                }
+                return value;
+            }
+
+            private static int getKind(char[] text, int start, int end) {
+                int ret = NUMBER;
+
+                if (end - start == 1 && text[start] == '*') {
+                    ret = WILDCARD;
+                } else {
+                    for (int i = start; i < end; i++) {
+                        if (Character.digit(text[i], 10) < 0) {
+                            ret = INVALID;
+                            break;
+                        }
+                    }
+                }
+                return ret;
+            }
+
+            // Value of a part of digits, or -1 when it is too large for an int
+            private static int getValue(char[] text, int start, int end) {
+                long ret = 0;
+
+                for (int i = start; i < end; i++) {
+                    ret = ret * 10 + Character.digit(text[i], 10);
+                    if (ret > Integer.MAX_VALUE) {
+                        return -1;
+                    }
+                }
+                return (int) ret;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+/*
+    Proleptic Gregorian calendar arithmetic on primitive epoch-days (days since 1970-01-01).
+    Months are 0-based and days of week are 1-based starting on Sunday, same as java.util.Calendar.
+    Year, month and day-of-month are returned packed into one int, so that no object is allocated.
+ */
+public final class EpochCalendar {
+    public static final int  MINUTES_PER_HOUR  = 60;
+    public static final int  MINUTES_PER_DAY   = 24 * MINUTES_PER_HOUR;
+    public static final long MILLIS_PER_SECOND = 1000L;
+    public static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    public static final long MILLIS_PER_DAY    = MINUTES_PER_DAY * MILLIS_PER_MINUTE;
+
+    private static final int   DAYS_PER_400_YEARS = 146097;
+    private static final int   DAYS_0000_TO_1970  = 719468;
+    private static final int[] DAYS_IN_MONTH      = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private EpochCalendar() {
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    public static int getDaysInMonth(int year, int month) {
+        return month == 1 && isLeapYear(year) ? 29 : DAYS_IN_MONTH[month];
+    }
+
+    public static int getDaysInPreviousMonth(int year, int month) {
+        return month == 0 ? DAYS_IN_MONTH[11] : getDaysInMonth(year, month - 1);
+    }
+
+    /*
+    Lenient, like java.util.Calendar - month may be outside 0..11 and dayOfMonth may be outside the month
+     */
+    public static long toEpochDay(int year, int month, int dayOfMonth) {
+        long y = year + Math.floorDiv(month, 12);
+        int  m = Math.floorMod(month, 12) + 1;
+
+        if (m <= 2) {
+            y--;
+        }
+        long era = Math.floorDiv(y, 400L);
+        int  yoe = (int) (y - era * 400);
+        int  doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5;
+        int  doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+
+        return era * DAYS_PER_400_YEARS + doe - DAYS_0000_TO_1970 + dayOfMonth - 1;
+    }
+
+    public static int toYearMonthDay(long epochDay) {
+        long z   = epochDay + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(z, DAYS_PER_400_YEARS);
+        int  doe = (int) (z - era * DAYS_PER_400_YEARS);
+        int  yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int  doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int  mp  = (5 * doy + 2) / 153;
+        int  day = doy - (153 * mp + 2) / 5 + 1;
+        int  month = mp < 10 ? mp + 2 : mp - 10;
+        int  year  = (int) (yoe + era * 400) + (month <= 1 ? 1 : 0);
+
+        return (year << 9) | (month << 5) | day;
+    }
+
+    public static int getYear(int yearMonthDay) { return yearMonthDay >> 9; }
+    public static int getMonth(int yearMonthDay) { return (yearMonthDay >> 5) & 0xF; }
+    public static int getDayOfMonth(int yearMonthDay) { return yearMonthDay & 0x1F; }
+
+    public static int getDayOfWeek(long epochDay) {
+        // 1970-01-01 was a Thursday
+        return (int) Math.floorMod(epochDay + 4, 7L) + 1;
+    }
+}
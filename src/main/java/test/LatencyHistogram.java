@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Lock-free histogram of non-negative values, such as latencies in nanoseconds, with log-linear buckets: each power of
+    two is split into SUB_BUCKETS equal buckets, so a value is known to within 1/SUB_BUCKETS of itself. Values below
+    SUB_BUCKETS have a bucket each. Recording is an index computation and an atomic increment, with no allocation.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKET_COUNT = getBucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder       sum    = new LongAdder();
+    private final LongAccumulator max    = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(getBucketIndex(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    // Counts read while values are being recorded may be off by those values
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+        }
+        return new Snapshot(bucketCounts, sum.sum(), max.get());
+    }
+
+    static int getBucketIndex(long value) {
+        final int ret;
+
+        if (value < SUB_BUCKETS) {
+            ret = (int) value;
+        } else {
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+            ret = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+        return ret;
+    }
+
+    // Greatest value that falls in the given bucket
+    static long getBucketUpperBound(int index) {
+        final long ret;
+
+        if (index < SUB_BUCKETS) {
+            ret = index;
+        } else {
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+
+            ret = lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+        return ret;
+    }
+
+    public static final class Snapshot {
+        private final long[] bucketCounts;
+        private final long   count;
+        private final long   sum;
+        private final long   max;
+
+        Snapshot(long[] bucketCounts, long sum, long max) {
+            long count = 0;
+
+            for (long bucketCount : bucketCounts) {
+                count += bucketCount;
+            }
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() { return count; }
+        public long getSum() { return sum; }
+        public long getMax() { return max; }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Upper bound of the bucket holding the given percentile (0 to 100) of recorded values, capped by the maximum
+        public long getPercentile(double percentile) {
+            long ret = 0;
+
+            if (count > 0) {
+                long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+                long seen = 0;
+
+                for (int i = 0; i < bucketCounts.length; i++) {
+                    seen += bucketCounts[i];
+                    if (seen >= rank) {
+                        ret = Math.min(getBucketUpperBound(i), max);
+                        break;
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + getMean() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + max + "}";
+        }
+    }
+}
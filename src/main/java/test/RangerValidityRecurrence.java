@@ -21,12 +21,14 @@ package test;
 /*package org.apache.ranger.plugin.model;*/
 
 import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @JsonAutoDetect(fieldVisibility= JsonAutoDetect.Visibility.ANY)
 @JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
@@ -204,6 +206,11 @@ public class RangerValidityRecurrence {
     private RecurrenceSchedule schedule;
     private ValidityInterval interval;
 
+    // Compiled form of schedule, set by RangerValidityScheduleValidator on the recurrences it normalizes; never serialized
+    @JsonIgnore
+    @XmlTransient
+    private transient CompiledRecurrenceSchedule compiledSchedule;
+
     public RangerValidityRecurrence() {
     }
 
@@ -222,6 +229,10 @@ public class RangerValidityRecurrence {
         return interval;
     }
 
+    CompiledRecurrenceSchedule getCompiledSchedule() { return compiledSchedule; }
+
+    void setCompiledSchedule(CompiledRecurrenceSchedule compiledSchedule) { this.compiledSchedule = compiledSchedule; }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("{RangerValidityRecurrence= {");
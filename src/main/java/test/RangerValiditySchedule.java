@@ -51,6 +51,10 @@ public class RangerValiditySchedule {
     public static final String VALIDITY_SCHEDULE_DATE_STRING_SPECIFICATION = "yyyyMMdd-HH:mm";
     private static TimeZone defaultTZ = TimeZone.getDefault();
 
+    static TimeZone getDefaultTimeZone() {
+        return defaultTZ;
+    }
+
     public static long getAdjustedTime(long localTime, TimeZone timeZone) {
         long ret = localTime;
 
@@ -20,7 +20,6 @@
 package test;
 /*package org.apache.ranger.plugin.policyevaluator;*/
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,18 +30,45 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.LongStream;
 
+/*
+    Compiled form of a validity schedule. Instances are immutable once constructed - final fields, masks and an
+    unmodifiable list of recurrence evaluators, none of which change - and safe to share across threads without
+    synchronization. The only state that changes after construction is the remembered validity window, which is an
+    immutable object published through a volatile field, and the minute memo of withMinuteMemo(), one AtomicLong: a
+    thread sees either some window or memo that was computed for this schedule, or none, and the answers do not depend
+    on which.
+ */
 public class RangerValidityScheduleEvaluator {
 
     private static final Log LOG = LogFactory.getLog(RangerValidityScheduleEvaluator.class);
     private static final Log PERF_LOG = LogFactory.getLog("test.perf.RangerValidityScheduleEvaluator");
 
+    // Constant, so that tracing does not build a string on every call
+    private static final String PERF_TAG_BATCH_IS_APPLICABLE      = "RangerValidityScheduleEvaluator.isApplicable(times)";
+    private static final String PERF_TAG_EVALUATE                 = "RangerValidityScheduleEvaluator.evaluate()";
+    private static final String PERF_TAG_RECURRENCE_IS_APPLICABLE = "RangerRecurrenceEvaluator.isApplicable()";
+
+    static final long MAX_TRANSITION_SEARCH_MINUTES = 32L * EpochCalendar.MINUTES_PER_DAY;
+
+    private static final long HALF_MINUTE_IN_MS = EpochCalendar.MILLIS_PER_MINUTE / 2;
+
+    private static final long NO_MINUTE_MEMO = Long.MIN_VALUE;
+
+    private static final long NO_FLIP = Long.MIN_VALUE;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
     private static final ThreadLocal<DateFormat> DATE_FORMATTER = new ThreadLocal<DateFormat>() {
         @Override
         protected DateFormat initialValue() {
@@ -50,16 +76,56 @@ public class RangerValidityScheduleEvaluator {
         }
     };
 
-    private Date startTime;
-    private Date endTime;
+    /*
+    CALENDAR does the closest-past-epoch search with java.util.Calendar objects.
+    EPOCH_ARITHMETIC does the same search on epoch-day and minute-of-day ints in the local (default) time-zone, without
+    allocating. Both give the same answers, except within a local DST transition where wall-clock minutes are ambiguous.
+    SCHEDULED_DAYS does the minute and hour lookups of EPOCH_ARITHMETIC, then finds the closest past day that matches
+    dayOfMonth or dayOfWeek, month and year together, in a per-recurrence bitmap of scheduled days. Its answers differ
+    where the day searches of the other two do not land on a scheduled day: their dayOfMonth match ignores the day
+    borrowed by the hour lookup, except on the 1st of a month, and their month and year lookups keep the day number
+    found before them, in an earlier month.
+     */
+    public enum EvaluationEngine {
+        CALENDAR,
+        EPOCH_ARITHMETIC,
+        SCHEDULED_DAYS,
+    }
+
+    private final long id;
+    private final Date startTime; // never modified, nor handed out
+    private final Date endTime;
     private final String timeZone;
-    List<RangerRecurrenceEvaluator> recurrenceEvaluators = new ArrayList<>();
+    private final EvaluationEngine engine;
+    private final ZoneOffsetTable zoneOffsets; // adjustment to timeZone, null when no timeZone is specified
+    private final long adjustedStartTime;
+    private final long adjustedEndTime;
+    final List<RangerRecurrenceEvaluator> recurrenceEvaluators; // unmodifiable
+
+    // Last interval over which applicability is known not to change; replaced, never modified, so readers need no lock
+    private volatile ValidityWindow lastWindow;
+
+    // Start of the minute of the last memoized call, in ms - always even - or'ed with its result; null unless withMinuteMemo()
+    private final AtomicLong minuteMemo;
 
     public RangerValidityScheduleEvaluator(@Nonnull RangerValiditySchedule validitySchedule) {
-        this(validitySchedule.getStartTime(), validitySchedule.getEndTime(), validitySchedule.getTimeZone(), validitySchedule.getRecurrences());
+        this(validitySchedule, EvaluationEngine.CALENDAR);
+    }
+    public RangerValidityScheduleEvaluator(@Nonnull RangerValiditySchedule validitySchedule, EvaluationEngine engine) {
+        this(validitySchedule.getStartTime(), validitySchedule.getEndTime(), validitySchedule.getTimeZone(), validitySchedule.getRecurrences(), engine);
     }
     public RangerValidityScheduleEvaluator(String startTimeStr, String endTimeStr, String timeZone, List<RangerValidityRecurrence> recurrences) {
+        this(startTimeStr, endTimeStr, timeZone, recurrences, EvaluationEngine.CALENDAR);
+    }
+    public RangerValidityScheduleEvaluator(String startTimeStr, String endTimeStr, String timeZone, List<RangerValidityRecurrence> recurrences, EvaluationEngine engine) {
+        ValidityScheduleFlightRecorder.CompileEvent event = ValidityScheduleFlightRecorder.beginCompile();
+        Date startTime = null;
+        Date endTime = null;
+        List<RangerRecurrenceEvaluator> recurrenceEvaluators = new ArrayList<>();
+
+        this.id = NEXT_ID.incrementAndGet();
         this.timeZone = timeZone;
+        this.engine = engine == null ? EvaluationEngine.CALENDAR : engine;
         if (startTimeStr != null && endTimeStr != null) {
             try {
                 startTime = DATE_FORMATTER.get().parse(startTimeStr);
@@ -67,74 +133,680 @@ public class RangerValidityScheduleEvaluator {
             } catch (ParseException exception) {
                 LOG.error("Error parsing startTime:[" + startTimeStr + "], and/or "
                         + "endTime:[" + endTimeStr + "]", exception);
+                if (ValidityScheduleMetrics.isMetricsEnabled()) {
+                    ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.PARSE_FAILURES);
+                }
             }
         }
         for (RangerValidityRecurrence recurrence : recurrences) {
-            recurrenceEvaluators.add(new RangerRecurrenceEvaluator(recurrence));
+            recurrenceEvaluators.add(new RangerRecurrenceEvaluator(recurrence, this.engine));
+        }
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.recurrenceEvaluators = Collections.unmodifiableList(recurrenceEvaluators);
+        this.zoneOffsets = StringUtils.isNotBlank(timeZone) ? ZoneOffsetTable.getAdjustmentOffsets(timeZone) : null;
+        this.adjustedStartTime = getAdjustedTime(startTime == null ? 0 : startTime.getTime());
+        this.adjustedEndTime = getAdjustedTime(endTime == null ? 0 : endTime.getTime());
+        this.minuteMemo = null;
+
+        if (event != null) {
+            ValidityScheduleFlightRecorder.commitCompile(event, RangerValidityScheduleEvaluator.class.getSimpleName(), id,
+                    "startTime=" + startTimeStr + ", endTime=" + endTimeStr + ", timeZone=" + timeZone, recurrences.size());
         }
     }
 
+    // From already parsed times and compiled recurrences, as read from a ValidityScheduleSnapshot
+    RangerValidityScheduleEvaluator(Date startTime, Date endTime, String timeZone, List<RangerRecurrenceEvaluator> recurrenceEvaluators, EvaluationEngine engine) {
+        this.id = NEXT_ID.incrementAndGet();
+        this.startTime = startTime == null ? null : new Date(startTime.getTime());
+        this.endTime = endTime == null ? null : new Date(endTime.getTime());
+        this.timeZone = timeZone;
+        this.engine = engine == null ? EvaluationEngine.CALENDAR : engine;
+        this.recurrenceEvaluators = Collections.unmodifiableList(new ArrayList<>(recurrenceEvaluators));
+        this.zoneOffsets = StringUtils.isNotBlank(timeZone) ? ZoneOffsetTable.getAdjustmentOffsets(timeZone) : null;
+        this.adjustedStartTime = getAdjustedTime(startTime == null ? 0 : startTime.getTime());
+        this.adjustedEndTime = getAdjustedTime(endTime == null ? 0 : endTime.getTime());
+        this.minuteMemo = null;
+    }
+
+    // Same schedule, sharing this evaluator's compiled recurrences, with a memo of the result for the current minute
+    private RangerValidityScheduleEvaluator(RangerValidityScheduleEvaluator other) {
+        this.id = other.id;
+        this.startTime = other.startTime;
+        this.endTime = other.endTime;
+        this.timeZone = other.timeZone;
+        this.engine = other.engine;
+        this.recurrenceEvaluators = other.recurrenceEvaluators;
+        this.zoneOffsets = other.zoneOffsets;
+        this.adjustedStartTime = other.adjustedStartTime;
+        this.adjustedEndTime = other.adjustedEndTime;
+        this.minuteMemo = new AtomicLong(NO_MINUTE_MEMO);
+    }
+
+    /*
+    Returns an evaluator of the same schedule that memoizes the result of isApplicable() for the minute of the last
+    call, packed with that minute into one AtomicLong, so that calls within the same minute return it without consulting
+    the remembered window. Applicability changes only within the first second of a minute, so calls in that second are
+    neither memoized nor answered from the memo.
+     */
+    public RangerValidityScheduleEvaluator withMinuteMemo() {
+        return minuteMemo != null ? this : new RangerValidityScheduleEvaluator(this);
+    }
+
+    public boolean isMinuteMemoEnabled() {
+        return minuteMemo != null;
+    }
+
+    public EvaluationEngine getEngine() {
+        return engine;
+    }
+
+    // Unique within the process, and shared with withMinuteMemo(); identifies the schedule in flight recorder events
+    public long getId() {
+        return id;
+    }
+
+    Date getStartTime() {
+        return startTime == null ? null : new Date(startTime.getTime());
+    }
+
+    Date getEndTime() {
+        return endTime == null ? null : new Date(endTime.getTime());
+    }
+
+    String getTimeZone() {
+        return timeZone;
+    }
+
+    /*
+    Access times on the hot path are nearly monotonic, so the interval found for one call - up to the next flip of
+    applicability, as computed by nextTransition() - answers the calls that follow without any calendar math. When time
+    moves past the remembered interval, the next one is computed and published in its place. Access times earlier than
+    the remembered interval are evaluated directly and leave it as is, so that out-of-order calls do not thrash it.
+     */
     public boolean isApplicable(long localAccessTime) {
-        boolean ret = false;
+        final ValidityScheduleFlightRecorder.EvaluationEvent event = ValidityScheduleFlightRecorder.beginEvaluation();
+        final boolean ret = isApplicable(localAccessTime, event);
+
+        if (event != null) {
+            ValidityScheduleFlightRecorder.commitEvaluation(event, id, localAccessTime, ret);
+        }
+        return ret;
+    }
+
+    // event, when not null, is given the steps of the transition search, if one is made
+    private boolean isApplicable(long localAccessTime, ValidityScheduleFlightRecorder.EvaluationEvent event) {
+        if (minuteMemo == null) {
+            return isApplicableInWindow(localAccessTime, event);
+        }
+
+        final long memo = minuteMemo.get();
+        final long sinceMemoMinute = localAccessTime - (memo & ~1L);
+
+        if (memo != NO_MINUTE_MEMO && sinceMemoMinute >= EpochCalendar.MILLIS_PER_SECOND && sinceMemoMinute < EpochCalendar.MILLIS_PER_MINUTE) {
+            if (ValidityScheduleMetrics.isMetricsEnabled()) {
+                ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.EVALUATIONS);
+                ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.MINUTE_MEMO_HITS);
+            }
+            return (memo & 1L) != 0L;
+        }
+
+        final boolean ret = isApplicableInWindow(localAccessTime, event);
+        final long minuteStart = Math.floorDiv(localAccessTime, EpochCalendar.MILLIS_PER_MINUTE) * EpochCalendar.MILLIS_PER_MINUTE;
+
+        if (localAccessTime - minuteStart >= EpochCalendar.MILLIS_PER_SECOND) {
+            minuteMemo.lazySet(minuteStart | (ret ? 1L : 0L));
+        }
+        return ret;
+    }
+
+    private boolean isApplicableInWindow(long localAccessTime, ValidityScheduleFlightRecorder.EvaluationEvent event) {
+        final boolean ret;
+        final boolean isWindowHit;
+
+        ValidityWindow window = lastWindow;
+
+        if (window != null && window.contains(localAccessTime)) {
+            ret = window.isApplicable;
+            isWindowHit = true;
+        } else if (window == null || localAccessTime >= window.endTime) {
+            Transition transition = nextTransition(localAccessTime);
+
+            lastWindow = new ValidityWindow(localAccessTime, transition.getTime(), transition.isApplicable());
+            ret = transition.isApplicable();
+            isWindowHit = false;
+
+            if (event != null) {
+                event.setSearchSteps(transition.searchSteps);
+            }
+        } else {
+            ret = evaluate(localAccessTime);
+            isWindowHit = false;
+        }
+
+        if (ValidityScheduleMetrics.isMetricsEnabled()) {
+            ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.EVALUATIONS);
+            ValidityScheduleMetrics.increment(isWindowHit ? ValidityScheduleMetrics.Counter.WINDOW_HITS : ValidityScheduleMetrics.Counter.WINDOW_MISSES);
+        }
+        return ret;
+    }
+
+    /*
+    Batch form of isApplicable(): sets bit i of out when times[i] is applicable, and clears it otherwise.
+    The times are swept in ascending order, so that each interval found by nextTransition() answers all the times that
+    fall in it; unsorted input is swept over a sorted copy, and each time then looked up in the intervals found.
+     */
+    public void isApplicable(@Nonnull long[] times, @Nonnull BitSet out) {
         RangerPerfTracer perf = null;
 
         if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
-            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, "RangerValidityScheduleEvaluator.isApplicable(localAccessTime=" + localAccessTime + ")");
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_BATCH_IS_APPLICABLE);
+        }
+
+        out.clear(0, times.length);
+
+        final ValidityWindow lastWindow = this.lastWindow;
+
+        if (isSorted(times)) {
+            ValidityWindow window = null;
+
+            for (int i = 0; i < times.length; i++) {
+                if (window == null || times[i] >= window.endTime) {
+                    window = getWindow(times[i], lastWindow);
+                }
+                if (window.isApplicable) {
+                    out.set(i);
+                }
+            }
+        } else {
+            long[] sortedTimes = times.clone();
+
+            Arrays.sort(sortedTimes);
+
+            List<ValidityWindow> windows = new ArrayList<>();
+            ValidityWindow window = null;
+
+            for (long time : sortedTimes) {
+                if (window == null || time >= window.endTime) {
+                    window = getWindow(time, lastWindow);
+                    windows.add(window);
+                }
+            }
+
+            long[] windowStartTimes = new long[windows.size()];
+
+            for (int i = 0; i < windowStartTimes.length; i++) {
+                windowStartTimes[i] = windows.get(i).startTime;
+            }
+            for (int i = 0; i < times.length; i++) {
+                int index = Arrays.binarySearch(windowStartTimes, times[i]);
+
+                if (windows.get(index >= 0 ? index : -index - 2).isApplicable) {
+                    out.set(i);
+                }
+            }
         }
+        RangerPerfTracer.logAlways(perf);
+    }
+
+    // Returns a BitSet with bit i set when the i-th time of the stream is applicable
+    public BitSet isApplicable(@Nonnull LongStream times) {
+        long[] values = times.toArray();
+        BitSet ret = new BitSet(values.length);
+
+        isApplicable(values, ret);
 
-        long accessTime = localAccessTime;
-        long startTimeInMSs = startTime == null ? 0 : startTime.getTime();
-        long endTimeInMSs = endTime == null ? 0 : endTime.getTime();
+        return ret;
+    }
+
+    private ValidityWindow getWindow(long time, ValidityWindow lastWindow) {
+        ValidityWindow ret = lastWindow;
 
-        if (StringUtils.isNotBlank(timeZone)) {
-            TimeZone targetTZ = TimeZone.getTimeZone(timeZone);
+        if (ret == null || !ret.contains(time)) {
+            Transition transition = nextTransition(time);
 
-            accessTime = RangerValiditySchedule.getAdjustedTime(localAccessTime, targetTZ);
-            startTimeInMSs = RangerValiditySchedule.getAdjustedTime(startTime == null ? 0 : startTime.getTime(), targetTZ);
-            endTimeInMSs = RangerValiditySchedule.getAdjustedTime(endTime == null ? 0 : endTime.getTime(), targetTZ);
+            ret = new ValidityWindow(time, transition.getTime(), transition.isApplicable());
         }
-        if (accessTime >= startTimeInMSs && accessTime <= endTimeInMSs) {
-            ret = true;
+        return ret;
+    }
+
+    private static boolean isSorted(long[] times) {
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Evaluates applicability at the given time, without consulting the remembered interval
+    boolean evaluate(long localAccessTime) {
+        boolean ret;
+        RangerPerfTracer perf = null;
+        final boolean isMetricsEnabled = ValidityScheduleMetrics.isMetricsEnabled();
+        final long startNanos = isMetricsEnabled ? System.nanoTime() : 0;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_EVALUATE);
+        }
+
+        ret = isApplicableAt(localAccessTime);
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (isMetricsEnabled) {
+            ValidityScheduleMetrics.recordLatency(ValidityScheduleMetrics.Latency.EVALUATION, System.nanoTime() - startNanos);
+        }
+        return ret;
+    }
+
+    // Same as evaluate(), without tracing or metrics: for the probes of nextTransition()
+    private boolean isApplicableAt(long localAccessTime) {
+        boolean ret = false;
+        long accessTime = getAdjustedTime(localAccessTime);
+
+        if (accessTime >= adjustedStartTime && accessTime <= adjustedEndTime) { // applicable if any of the recurrences is
+            ret = recurrenceEvaluators.isEmpty();
             for (RangerRecurrenceEvaluator recurrenceEvaluator : recurrenceEvaluators) {
-                ret = ret && recurrenceEvaluator.isApplicable(startTimeInMSs, endTimeInMSs, accessTime);
+                ret = recurrenceEvaluator.isApplicable(adjustedStartTime, adjustedEndTime, accessTime);
                 if (ret) {
                     break;
                 }
             }
         }
-        RangerPerfTracer.logAlways(perf);
+        return ret;
+    }
+
+    /*
+    Returns applicability at the given time, along with the next instant at which applicability flips.
+
+    Schedule fields have minute granularity, so applicability changes only within the first second of a minute. The
+    search walks forward in the local time used by recurrences, jumping between the points where a recurrence's closest
+    past epoch or its window can change (see RangerRecurrenceEvaluator.getNextChangeMinute()), and returns the start of
+    the first minute with a different applicability. With CALENDAR, this is precise to the minute: within the first second
+    of a minute, evaluation may briefly disagree, as its result there depends on the millisecond-of-second of the clock.
+    EPOCH_ARITHMETIC and SCHEDULED_DAYS are deterministic there: a window that opens in a minute is not applicable until
+    the end of its first second, and one that closes with a dayOfMonth match is until its last millisecond. The search
+    checks the first second of each minute it visits - which include every minute at which a window opens or closes -
+    and from within the first second, the flips at its last millisecond and at its end are returned. The returned
+    time is never later than the actual flip, so applicability may be cached until then.
+
+    Local time is a fixed offset from the given time only until the next offset change of the default time-zone or of
+    the schedule's time-zone - after it, local minutes repeat or are skipped. The search stops there, and returns that
+    change if no flip is found before it; likewise, the end of the search is returned if no flip is found within
+    MAX_TRANSITION_SEARCH_MINUTES, though applicability does not change there. The CALENDAR engine adds interval hours
+    and minutes in elapsed time, and resolves repeated or skipped wall-clock times its own way, neither of which the
+    local-minute search models: for that engine, from a day before an offset change until intervals that span it are
+    over, the search is not made and the end of the current minute is returned.
+     */
+    public Transition nextTransition(long from) {
+        final boolean isMetricsEnabled = ValidityScheduleMetrics.isMetricsEnabled();
+        final long startNanos = isMetricsEnabled ? System.nanoTime() : 0;
+        final boolean isApplicable = evaluate(from);
+
+        // Until offsetChange, local time - wall-clock time in the default time-zone, as seen by recurrences - is time + localOffset
+        final long adjustment = zoneOffsets != null ? zoneOffsets.getOffset(from) : 0;
+        final long defaultZoneOffset = ZoneOffsetTable.getDefaultZoneOffsets().getOffset(from + adjustment);
+        final long localOffset = adjustment + defaultZoneOffset;
+        final long offsetChange = getNextOffsetChange(from);
+        final long searchEnd = engine == EvaluationEngine.CALENDAR ? offsetChange - EpochCalendar.MILLIS_PER_DAY : offsetChange;
+
+        // First and last local minutes within [startTime, endTime]
+        long firstMinute = Math.floorDiv(adjustedStartTime + defaultZoneOffset + HALF_MINUTE_IN_MS - 1, EpochCalendar.MILLIS_PER_MINUTE);
+        long lastMinute = Math.floorDiv(adjustedEndTime + defaultZoneOffset - HALF_MINUTE_IN_MS, EpochCalendar.MILLIS_PER_MINUTE);
+
+        long minute = Math.floorDiv(from + localOffset, EpochCalendar.MILLIS_PER_MINUTE);
+        long minuteStart = minute * EpochCalendar.MILLIS_PER_MINUTE - localOffset;
+        boolean state = isApplicableInMinute(minute, firstMinute, lastMinute);
+
+        boolean isInFirstSecond = from - minuteStart < EpochCalendar.MILLIS_PER_SECOND;
+        long firstSecondFlip = engine != EvaluationEngine.CALENDAR && isInFirstSecond && from < searchEnd ? getFirstSecondFlip(from, minuteStart, isApplicable) : NO_FLIP;
+
+        Transition ret = null;
+
+        if (firstSecondFlip != NO_FLIP) {
+            // from is within the first second of a minute, and a deterministic engine flips before its end
+            ret = new Transition(isApplicable, Math.min(firstSecondFlip, offsetChange), 0);
+        } else if (state != isApplicable || from >= searchEnd || (engine == EvaluationEngine.CALENDAR && isCalendarSettling(from))) {
+            // from is within the first second of a minute, where the flip at the start of this minute may not have happened
+            // yet; or, with CALENDAR, close to an offset change: applicability holds until the end of this minute
+            long end = isInFirstSecond ? minuteStart + EpochCalendar.MILLIS_PER_SECOND : minuteStart + EpochCalendar.MILLIS_PER_MINUTE;
+
+            ret = new Transition(isApplicable, Math.max(from + 1, Math.min(end, offsetChange)), 0);
+        } else {
+            // first local minute that starts at or after searchEnd
+            long stopMinute = searchEnd == Long.MAX_VALUE ? Long.MAX_VALUE : Math.floorDiv(searchEnd + localOffset + EpochCalendar.MILLIS_PER_MINUTE - 1, EpochCalendar.MILLIS_PER_MINUTE);
+            long horizon = Math.min(minute + MAX_TRANSITION_SEARCH_MINUTES, stopMinute);
+            long steps = 0;
+            boolean isPastEnd = false;
+
+            while (minute < horizon) {
+                long next = horizon;
+
+                steps++;
+
+                if (minute < firstMinute) {
+                    next = Math.min(next, firstMinute);
+                } else if (minute <= lastMinute) {
+                    next = Math.min(next, lastMinute + 1);
+                    for (RangerRecurrenceEvaluator recurrenceEvaluator : recurrenceEvaluators) {
+                        next = Math.min(next, recurrenceEvaluator.getNextChangeMinute(minute));
+                    }
+                } else {
+                    isPastEnd = true;
+                    break;
+                }
+                minute = next;
+
+                if (minute < horizon && (isApplicableInMinute(minute, firstMinute, lastMinute) != state || hasFirstSecondFlip(minute * EpochCalendar.MILLIS_PER_MINUTE - localOffset, state))) {
+                    ret = new Transition(isApplicable, Math.max(from + 1, minute * EpochCalendar.MILLIS_PER_MINUTE - localOffset), steps);
+                    break;
+                }
+            }
+            if (ret == null) {
+                final long end;
+
+                if (isPastEnd && (zoneOffsets == null || offsetChange - from > adjustedEndTime + EpochCalendar.MILLIS_PER_DAY - getAdjustedTime(from))) {
+                    end = Long.MAX_VALUE; // never applicable again: no change of the adjustment brings adjusted time back to endTime
+                } else if (minute >= horizon) {
+                    end = Math.max(from + 1, Math.min(horizon * EpochCalendar.MILLIS_PER_MINUTE - localOffset, searchEnd));
+                } else {
+                    end = Math.max(from + 1, searchEnd);
+                }
+                ret = new Transition(isApplicable, end, steps);
+            }
+            if (isMetricsEnabled) {
+                ValidityScheduleMetrics.add(ValidityScheduleMetrics.Counter.TRANSITION_SEARCH_STEPS, steps);
+            }
+        }
+
+        if (isMetricsEnabled) {
+            ValidityScheduleMetrics.recordLatency(ValidityScheduleMetrics.Latency.TRANSITION_SEARCH, System.nanoTime() - startNanos);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("nextTransition(from=" + from + "): " + ret);
+        }
+        return ret;
+    }
+
+    /*
+    With the deterministic engines, evaluation within the first second of a minute is the same up to its last millisecond,
+    and from the end of that second it is the same as in the rest of the minute. Returns the first of those two instants,
+    after from, at which evaluation differs from isApplicable; NO_FLIP if it does not within the first second.
+     */
+    private long getFirstSecondFlip(long from, long minuteStart, boolean isApplicable) {
+        final long lastMillisecond = minuteStart + EpochCalendar.MILLIS_PER_SECOND - 1;
+        final long ret;
+
+        if (from < lastMillisecond && isApplicableAt(lastMillisecond) != isApplicable) {
+            ret = lastMillisecond;
+        } else if (isApplicableAt(lastMillisecond + 1) != isApplicable) {
+            ret = lastMillisecond + 1;
+        } else {
+            ret = NO_FLIP;
+        }
+        return ret;
+    }
 
+    // Whether, with the deterministic engines, evaluation within the first second of the minute differs from state
+    private boolean hasFirstSecondFlip(long minuteStart, boolean state) {
+        return engine != EvaluationEngine.CALENDAR && (isApplicableAt(minuteStart) != state || isApplicableAt(minuteStart + EpochCalendar.MILLIS_PER_SECOND - 1) != state);
+    }
+
+    private boolean isApplicableInMinute(long localMinute, long firstMinute, long lastMinute) {
+        boolean ret = false;
+
+        if (localMinute >= firstMinute && localMinute <= lastMinute) {
+            ret = recurrenceEvaluators.isEmpty();
+            for (RangerRecurrenceEvaluator recurrenceEvaluator : recurrenceEvaluators) {
+                ret = recurrenceEvaluator.isApplicableInMinute(localMinute);
+                if (ret) {
+                    break;
+                }
+            }
+        }
+        return ret;
+    }
+
+    // First instant after time at which the offset of the default time-zone, or the adjustment to timeZone, changes
+    private long getNextOffsetChange(long time) {
+        ZoneOffsetTable defaultZoneOffsets = ZoneOffsetTable.getDefaultZoneOffsets();
+        long ret = defaultZoneOffsets.getNextTransitionTime(time);
+
+        if (zoneOffsets != null) {
+            long adjustment = zoneOffsets.getOffset(time);
+
+            ret = Math.min(ret, zoneOffsets.getNextTransitionTime(time));
+            ret = Math.min(ret, defaultZoneOffsets.getNextTransitionTime(time + adjustment) - adjustment);
+        }
+        return ret;
+    }
+
+    // Last instant, at or before time, at which the offset of the default time-zone, or the adjustment to timeZone, changed;
+    // Long.MIN_VALUE if neither did
+    private long getPreviousOffsetChange(long time) {
+        ZoneOffsetTable defaultZoneOffsets = ZoneOffsetTable.getDefaultZoneOffsets();
+        long ret = defaultZoneOffsets.getPreviousTransitionTime(time);
+
+        if (zoneOffsets != null) {
+            long adjustment = zoneOffsets.getOffset(time);
+            long previous = defaultZoneOffsets.getPreviousTransitionTime(time + adjustment);
+
+            ret = Math.max(ret, zoneOffsets.getPreviousTransitionTime(time));
+            ret = Math.max(ret, previous == Long.MIN_VALUE ? previous : previous - adjustment);
+        }
+        return ret;
+    }
+
+    // Whether an offset change, if there is any before time, is within getCalendarSettlingTime() of it
+    private boolean isCalendarSettling(long time) {
+        long previous = getPreviousOffsetChange(time);
+
+        return previous != Long.MIN_VALUE && time - previous < getCalendarSettlingTime();
+    }
+
+    // How long after an offset change an interval that spans it may be open: the longest interval, and a day for the change itself
+    private long getCalendarSettlingTime() {
+        long ret = EpochCalendar.MILLIS_PER_DAY;
+
+        for (RangerRecurrenceEvaluator recurrenceEvaluator : recurrenceEvaluators) {
+            ret = Math.max(ret, EpochCalendar.MILLIS_PER_DAY + recurrenceEvaluator.getIntervalInMinutes() * EpochCalendar.MILLIS_PER_MINUTE);
+        }
         return ret;
     }
 
+    // Same as RangerValiditySchedule.getAdjustedTime(time, timeZone), without resolving the time-zone again
+    private long getAdjustedTime(long time) {
+        return zoneOffsets != null ? zoneOffsets.getAdjustedTime(time) : time;
+    }
+
+    private static long toDefaultZoneTime(long adjustedTime) {
+        return adjustedTime + ZoneOffsetTable.getDefaultZoneOffsets().getOffset(adjustedTime);
+    }
+
+    public static class Transition {
+        private final boolean isApplicable;
+        private final long    time;
+        final long            searchSteps; // points visited to find time
+
+        Transition(boolean isApplicable, long time, long searchSteps) {
+            this.isApplicable = isApplicable;
+            this.time = time;
+            this.searchSteps = searchSteps;
+        }
+
+        // Applicability at the time nextTransition() was asked about, until getTime()
+        public boolean isApplicable() { return isApplicable; }
+
+        // Instant at which applicability flips, Long.MAX_VALUE if it never does
+        public long getTime() { return time; }
+
+        @Override
+        public String toString() {
+            return "Transition={isApplicable=" + isApplicable + ", time=" + time + "}";
+        }
+    }
+
+    // Half-open interval [startTime, endTime) over which applicability does not change
+    private static final class ValidityWindow {
+        final long    startTime;
+        final long    endTime;
+        final boolean isApplicable;
+
+        ValidityWindow(long startTime, long endTime, boolean isApplicable) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.isApplicable = isApplicable;
+        }
+
+        boolean contains(long time) {
+            return time >= startTime && time < endTime;
+        }
+    }
+
     static class RangerRecurrenceEvaluator {
 
-        private List<ScheduledTimeMatcher> minutes = new ArrayList<>();
-        private List<ScheduledTimeMatcher> hours = new ArrayList<>();
-        private List<ScheduledTimeMatcher> daysOfMonth = new ArrayList<>();
-        private List<ScheduledTimeMatcher> daysOfWeek = new ArrayList<>();
-        private List<ScheduledTimeMatcher> months = new ArrayList<>();
-        private List<ScheduledTimeMatcher> years = new ArrayList<>();
+        private static final ScheduledTimeMask EMPTY_MASK = new ScheduledTimeMask(0, 0L, 0L);
+
+        static final long NO_EPOCH = Long.MIN_VALUE;
+
+        private static final int NOT_FOUND = -1;
+        private static final int MAX_MONTHS_TO_GO_BACK = 12;
+        private static final int YEAR_SHAPES = 2 * 7; // leap or not, by day-of-week of January 1st
+        private static final int DAYS_IN_LEAP_YEAR = 366;
 
-        private final RangerValidityRecurrence recurrence;
-        private int intervalInMinutes = 0;
+        private final ScheduledTimeMask minutes;
+        private final ScheduledTimeMask hours;
+        private final ScheduledTimeMask daysOfMonth;
+        private final ScheduledTimeMask daysOfWeek;
+        private final ScheduledTimeMask months;
+        private final ScheduledTimeMask years;
+        private final boolean isDayOfMonthSpecified;
+        private final boolean isDayOfWeekSpecified;
+
+        private final RangerValidityRecurrence.ValidityInterval interval;
+        private final EvaluationEngine engine;
+        private final int intervalInMinutes;
+        private final AtomicReferenceArray<BitSet> scheduledDaysByYearShape; // null unless recurring with SCHEDULED_DAYS
 
 
         public RangerRecurrenceEvaluator(RangerValidityRecurrence recurrence) {
+            this(recurrence, EvaluationEngine.CALENDAR);
+        }
+
+        public RangerRecurrenceEvaluator(RangerValidityRecurrence recurrence, EvaluationEngine engine) {
+            this(recurrence == null ? null : recurrence.getInterval(), compile(recurrence), engine);
+        }
+
+        private RangerRecurrenceEvaluator(RangerValidityRecurrence.ValidityInterval interval, CompiledRecurrenceSchedule compiledSchedule, EvaluationEngine engine) {
+            this(interval, getMasks(compiledSchedule), getSpecifiedFields(compiledSchedule), engine);
+        }
+
+        /*
+        From an already compiled schedule: masks are indexed by ScheduleFieldSpec ordinal, and null when the recurrence
+        has no interval; bit (1 << ordinal) of specifiedFields is set for each field whose value is not blank.
+         */
+        RangerRecurrenceEvaluator(RangerValidityRecurrence.ValidityInterval interval, ScheduledTimeMask[] masks, int specifiedFields, EvaluationEngine engine) {
+            this.interval = interval;
+            this.engine = engine;
+            this.intervalInMinutes = masks == null ? 0 : RangerValidityRecurrence.ValidityInterval.getValidityIntervalInMinutes(interval);
+            this.scheduledDaysByYearShape = masks != null && engine == EvaluationEngine.SCHEDULED_DAYS ? new AtomicReferenceArray<BitSet>(YEAR_SHAPES) : null;
+
+            minutes = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute);
+            hours = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour);
+            daysOfMonth = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth);
+            daysOfWeek = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek);
+            months = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month);
+            years = getMask(masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year);
+
+            isDayOfMonthSpecified = (specifiedFields & (1 << RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth.ordinal())) != 0;
+            isDayOfWeekSpecified = (specifiedFields & (1 << RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.ordinal())) != 0;
+        }
+
+        /*
+        Compiled schedule of a recurrence with an interval, or null. A recurrence normalized by the validator carries the
+        form the validator compiled, which is used as long as the recurrence still has the normalized field values; any
+        other recurrence is compiled from its field strings.
+         */
+        private static CompiledRecurrenceSchedule compile(RangerValidityRecurrence recurrence) {
+            CompiledRecurrenceSchedule ret = null;
+
+            if (recurrence != null && RangerValidityRecurrence.ValidityInterval.getValidityIntervalInMinutes(recurrence.getInterval()) > 0) {
+                ret = recurrence.getCompiledSchedule();
+
+                if (ret == null || !ret.isNormalizedFormOf(recurrence.getSchedule())) {
+                    ValidityScheduleFlightRecorder.CompileEvent event = ValidityScheduleFlightRecorder.beginCompile();
+
+                    ret = CompiledRecurrenceSchedule.compile(recurrence.getSchedule());
+
+                    if (event != null) {
+                        ValidityScheduleFlightRecorder.commitCompile(event, RangerRecurrenceEvaluator.class.getSimpleName(), 0, String.valueOf(recurrence.getSchedule()), 1);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private static ScheduledTimeMask[] getMasks(CompiledRecurrenceSchedule compiledSchedule) {
+            ScheduledTimeMask[] ret = null;
+
+            if (compiledSchedule != null) {
+                RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec[] fields = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values();
+
+                ret = new ScheduledTimeMask[fields.length];
+                for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field : fields) {
+                    ret[field.ordinal()] = compiledSchedule.getField(field).getMask();
+                }
+            }
+            return ret;
+        }
 
-            this.recurrence = recurrence;
+        private static int getSpecifiedFields(CompiledRecurrenceSchedule compiledSchedule) {
+            int ret = 0;
 
-            if (recurrence != null) {
-                intervalInMinutes = RangerValidityRecurrence.ValidityInterval.getValidityIntervalInMinutes(recurrence.getInterval());
-                if (intervalInMinutes > 0) {
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute, minutes);
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour, hours);
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth, daysOfMonth);
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek, daysOfWeek);
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month, months);
-                    addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year, years);
+            if (compiledSchedule != null) {
+                for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field : RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values()) {
+                    if (!compiledSchedule.getField(field).isBlank()) {
+                        ret |= 1 << field.ordinal();
+                    }
                 }
             }
+            return ret;
+        }
+
+        private static ScheduledTimeMask getMask(ScheduledTimeMask[] masks, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field) {
+            return masks == null ? EMPTY_MASK : masks[field.ordinal()];
+        }
+
+        ScheduledTimeMask getMask(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field) {
+            switch (field) {
+                case minute:
+                    return minutes;
+                case hour:
+                    return hours;
+                case dayOfMonth:
+                    return daysOfMonth;
+                case dayOfWeek:
+                    return daysOfWeek;
+                case month:
+                    return months;
+                default:
+                    return years;
+            }
+        }
+
+        int getSpecifiedFields() {
+            return (isDayOfMonthSpecified ? 1 << RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth.ordinal() : 0)
+                    | (isDayOfWeekSpecified ? 1 << RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.ordinal() : 0);
+        }
+
+        RangerValidityRecurrence.ValidityInterval getInterval() {
+            return interval;
+        }
+
+        int getIntervalInMinutes() {
+            return intervalInMinutes;
         }
 
         public boolean isApplicable(long startTimeInMSs, long endTimeInMSs, long accessTime) {
@@ -142,11 +814,15 @@ public class RangerValidityScheduleEvaluator {
             RangerPerfTracer perf = null;
 
             if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
-                perf = RangerPerfTracer.getPerfTracer(PERF_LOG, "RangerRecurrenceEvaluator.isApplicable(localAccessTime=" + accessTime + ")");
+                perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_RECURRENCE_IS_APPLICABLE);
             }
 
             if (accessTime >= startTimeInMSs && accessTime <= endTimeInMSs) {
-                if (recurrence != null && intervalInMinutes > 0) { // recurring schedule
+                if (intervalInMinutes > 0 && engine != EvaluationEngine.CALENDAR) {
+
+                    ret = isApplicableInLocalTime(accessTime);
+
+                } else if (intervalInMinutes > 0) { // recurring schedule
 
                     Calendar now = new GregorianCalendar();
                     now.setTime(new Date(accessTime));
@@ -163,9 +839,9 @@ public class RangerValidityScheduleEvaluator {
                         }
 
                         Calendar endOfInterval = (Calendar) startOfInterval.clone();
-                        endOfInterval.add(Calendar.MINUTE, recurrence.getInterval().getMinutes());
-                        endOfInterval.add(Calendar.HOUR, recurrence.getInterval().getHours());
-                        endOfInterval.add(Calendar.DAY_OF_MONTH, recurrence.getInterval().getDays());
+                        endOfInterval.add(Calendar.MINUTE, interval.getMinutes());
+                        endOfInterval.add(Calendar.HOUR, interval.getHours());
+                        endOfInterval.add(Calendar.DAY_OF_MONTH, interval.getDays());
 
                         endOfInterval.getTime();    // for recomputation
 
@@ -183,34 +859,111 @@ public class RangerValidityScheduleEvaluator {
             return ret;
         }
 
-        private void addScheduledTime(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, List<ScheduledTimeMatcher> list) {
-            String str = recurrence.getSchedule().getFieldValue(fieldSpec);
-            final boolean isMonth = fieldSpec == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month;
-            if (StringUtils.isNotBlank(str)) {
-                String[] specs = str.split(",");
-                for (String spec : specs) {
-                    String[] range = spec.split("-");
-                    if (range.length == 1) {
-                        if (StringUtils.equals(range[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                            list.clear();
-                            list.add(new ScheduledTimeAlwaysMatcher());
-                            break;
-                        } else {
-                            list.add(new ScheduledTimeExactMatcher(Integer.valueOf(range[0]) - (isMonth ? 1 : 0)));
-                        }
-                    } else {
-                        if (StringUtils.equals(range[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD) || StringUtils.equals(range[1], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                            list.clear();
-                            list.add(new ScheduledTimeAlwaysMatcher());
-                            break;
-                        } else {
-                            list.add(new ScheduledTimeRangeMatcher(Integer.valueOf(range[0]) - (isMonth ? 1 : 0), Integer.valueOf(range[1]) - (isMonth ? 1 : 0)));
-                        }
-                    }
+        private boolean isRecurring() {
+            return intervalInMinutes > 0;
+        }
+
+        /*
+        Applicability of the given local minute (minutes since epoch, wall-clock time in the default time-zone) as a whole -
+        i.e. ignoring the first second of the minute, within which a window may still be opening or closing.
+         */
+        boolean isApplicableInMinute(long localMinute) {
+            boolean ret = true;
+
+            if (isRecurring()) {
+                long epochMinute = getClosestPastEpochMinute(localMinute);
+                ret = epochMinute != NO_EPOCH && epochMinute <= localMinute && localMinute < epochMinute + intervalInMinutes;
+            }
+            return ret;
+        }
+
+        /*
+        Returns the first local minute after the given one at which isApplicableInMinute() may return a different value -
+        or, with the deterministic engines, at which the closest past epoch opens or closes a window, as the first second
+        of that minute may differ from the rest of it.
+
+        Within one hour, the hour/day/month/year lookups of the closest past epoch do not depend on the minute. So, before
+        the first scheduled minute of the hour the closest past epoch is fixed (it was borrowed from an earlier hour), and
+        from there on it is (fixed base + latest scheduled minute so far). That makes applicability a step function over
+        the segments between scheduled minutes, which is walked here without further epoch searches. The end of the current
+        part of the hour is returned if applicability does not change before it.
+         */
+        long getNextChangeMinute(long localMinute) {
+            if (!isRecurring()) {
+                return Long.MAX_VALUE;
+            }
+
+            final long hourStart = Math.floorDiv(localMinute, (long) EpochCalendar.MINUTES_PER_HOUR) * EpochCalendar.MINUTES_PER_HOUR;
+            final long hourEnd = hourStart + EpochCalendar.MINUTES_PER_HOUR;
+            final int minuteOfHour = (int) (localMinute - hourStart);
+            final int firstScheduledMinute = minutes.getNext(0, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute.maximum);
+
+            long epochMinute = getClosestPastEpochMinute(localMinute);
+
+            if (epochMinute == NO_EPOCH || firstScheduledMinute == ScheduledTimeMask.NO_MATCH) {
+                // Epoch-search results change only at hour boundaries, and where the minute lookup stops borrowing an hour
+                return firstScheduledMinute != ScheduledTimeMask.NO_MATCH && minuteOfHour < firstScheduledMinute ? hourStart + firstScheduledMinute : hourEnd;
+            }
+
+            final boolean state = epochMinute <= localMinute && localMinute < epochMinute + intervalInMinutes;
+
+            if (minuteOfHour < firstScheduledMinute) {
+                return getNextChangeMinute(localMinute, hourStart + firstScheduledMinute, epochMinute, state);
+            }
+
+            final long base = epochMinute - minutes.getPrevious(0, minuteOfHour);
+
+            for (int segmentStart = minutes.getPrevious(0, minuteOfHour); ; ) {
+                int nextScheduledMinute = minutes.getNext(segmentStart + 1, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute.maximum);
+                long segmentEnd = nextScheduledMinute == ScheduledTimeMask.NO_MATCH ? hourEnd : hourStart + nextScheduledMinute;
+                long ret = getNextChangeMinute(localMinute, segmentEnd, base + segmentStart, state);
+
+                if (ret < segmentEnd || segmentEnd == hourEnd) {
+                    return ret;
+                }
+
+                long nextEpochMinute = base + nextScheduledMinute;
+                if ((nextEpochMinute <= segmentEnd && segmentEnd < nextEpochMinute + intervalInMinutes) != state) {
+                    return segmentEnd;
+                }
+                if ((nextEpochMinute == segmentEnd || nextEpochMinute + intervalInMinutes == segmentEnd) && engine != EvaluationEngine.CALENDAR) {
+                    return segmentEnd; // the first second may differ: a window opens, or one with a dayOfMonth match closes
+                }
+                localMinute = segmentEnd;
+                segmentStart = nextScheduledMinute;
+            }
+        }
+
+        // First minute in (localMinute, end) at which applicability, with a fixed closest past epoch, differs from state; end if none
+        private long getNextChangeMinute(long localMinute, long end, long epochMinute, boolean state) {
+            long ret = end;
+
+            if (state) {
+                long windowEnd = epochMinute + intervalInMinutes;
+                if (windowEnd > localMinute && windowEnd < ret) {
+                    ret = windowEnd;
                 }
-                Collections.reverse(list);
+            } else if (epochMinute > localMinute && epochMinute < ret) {
+                ret = epochMinute;
             }
+            return ret;
+        }
+
+        private boolean isApplicableInLocalTime(long accessTime) {
+            boolean ret = false;
+
+            long localTime = toDefaultZoneTime(accessTime);
+            long startOfInterval = getClosestPastEpochTime(localTime);
 
+            if (startOfInterval != NO_EPOCH) {
+                long endOfInterval = startOfInterval + intervalInMinutes * EpochCalendar.MILLIS_PER_MINUTE;
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Local-Access-Time:[" + localTime + "], Start-of-Interval:[" + startOfInterval + "], End-of-Interval:[" + endOfInterval + "]");
+                }
+                ret = startOfInterval < localTime && endOfInterval > localTime;
+            }
+            return ret;
         }
 
     /*
@@ -226,12 +979,9 @@ public class RangerValidityScheduleEvaluator {
                     - For dayOfMonth calculation, consider that months have different number of days
     */
 
-        private class ValueWithBorrow {
-            int value;
-            boolean borrow;
-
-            ValueWithBorrow() {
-            }
+        private static final class ValueWithBorrow {
+            final int value;
+            final boolean borrow;
 
             ValueWithBorrow(int value) {
                 this(value, false);
@@ -242,14 +992,6 @@ public class RangerValidityScheduleEvaluator {
                 this.borrow = borrow;
             }
 
-            void setValue(int value) {
-                this.value = value;
-            }
-
-            void setBorrow(boolean borrow) {
-                this.borrow = borrow;
-            }
-
             int getValue() {
                 return value;
             }
@@ -267,36 +1009,34 @@ public class RangerValidityScheduleEvaluator {
         private Calendar getClosestPastEpoch(Calendar current) {
             Calendar ret = null;
 
-            try {
-                ValueWithBorrow input = new ValueWithBorrow();
-
-                input.setValue(current.get(Calendar.MINUTE));
-                input.setBorrow(false);
-                ValueWithBorrow closestMinute = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute, minutes, input);
+            ValueWithBorrow input = new ValueWithBorrow(current.get(Calendar.MINUTE));
+            ValueWithBorrow closestMinute = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute, minutes, input);
 
-                input.setValue(current.get(Calendar.HOUR_OF_DAY));
-                input.setBorrow(closestMinute.borrow);
+            if (closestMinute != null) {
+                input = new ValueWithBorrow(current.get(Calendar.HOUR_OF_DAY), closestMinute.borrow);
                 ValueWithBorrow closestHour = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour, hours, input);
 
-                Calendar dayOfMonthCalendar = getClosestDayOfMonth(current, closestMinute, closestHour);
+                if (closestHour != null) {
+                    Calendar dayOfMonthCalendar = getClosestDayOfMonth(current, closestMinute, closestHour);
 
-                Calendar dayOfWeekCalendar = getClosestDayOfWeek(current, closestMinute, closestHour);
+                    Calendar dayOfWeekCalendar = getClosestDayOfWeek(current, closestMinute, closestHour);
 
-                ret = getEarlierCalendar(dayOfMonthCalendar, dayOfWeekCalendar);
-
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("ClosestPastEpoch:[" + (ret != null ? ret.getTime() : null) + "]");
+                    if ((dayOfMonthCalendar != null || !isDayOfMonthSpecified)
+                            && (dayOfWeekCalendar != null || !isDayOfWeekSpecified)) {
+                        ret = getEarlierCalendar(dayOfMonthCalendar, dayOfWeekCalendar);
+                    }
                 }
+            }
 
-            } catch (Exception e) {
-                LOG.error("Could not find ClosestPastEpoch, Exception=", e);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("ClosestPastEpoch:[" + (ret != null ? ret.getTime() : null) + "]");
             }
             return ret;
         }
 
-        private Calendar getClosestDayOfMonth(Calendar current, ValueWithBorrow closestMinute, ValueWithBorrow closestHour) throws Exception {
+        private Calendar getClosestDayOfMonth(Calendar current, ValueWithBorrow closestMinute, ValueWithBorrow closestHour) {
             Calendar ret = null;
-            if (StringUtils.isNotBlank(recurrence.getSchedule().getDayOfMonth())) {
+            if (isDayOfMonthSpecified) {
                 int initialDayOfMonth = current.get(Calendar.DAY_OF_MONTH);
 
                 int currentDayOfMonth = initialDayOfMonth, currentMonth = current.get(Calendar.MONTH), currentYear = current.get(Calendar.YEAR);
@@ -322,36 +1062,25 @@ public class RangerValidityScheduleEvaluator {
                         }
                     } else {
                         LOG.error("Should not get here, initialDayOfMonth:[" + initialDayOfMonth + "], previousDayOfMonth:[" + previousDayOfMonth + "]");
-                        throw new Exception("Should not get here, initialDayOfMonth:[" + initialDayOfMonth + "], previousDayOfMonth:[" + previousDayOfMonth + "]");
+                        return null;
                     }
                 }
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("currentDayOfMonth:[" + currentDayOfMonth + "], maximumDaysInPreviourMonth:[" + maximumDaysInPreviousMonth + "]");
                 }
-                ValueWithBorrow input = new ValueWithBorrow();
-                input.setValue(currentDayOfMonth);
-                input.setBorrow(false);
-                ValueWithBorrow closestDayOfMonth = null;
-                do {
-                    int i = 0;
-                    try {
-                        closestDayOfMonth = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth, daysOfMonth, input, maximumDaysInPreviousMonth);
-                    } catch (Exception e) {
-                        i++;
-                        Calendar c = (GregorianCalendar) current.clone();
-                        c.set(Calendar.YEAR, currentYear);
-                        c.set(Calendar.MONTH, currentMonth);
-                        c.set(Calendar.DAY_OF_MONTH, currentDayOfMonth);
-                        c.add(Calendar.MONTH, -i);
-                        c.getTime();
-                        currentMonth = c.get(Calendar.MONTH);
-                        currentYear = c.get(Calendar.YEAR);
-                        currentDayOfMonth = c.get(Calendar.DAY_OF_MONTH);
-                        maximumDaysInPreviousMonth = getMaximumValForPreviousMonth(c);
-                        input.setValue(currentDayOfMonth);
-                        input.setBorrow(false);
+                ValueWithBorrow input = new ValueWithBorrow(currentDayOfMonth);
+                ValueWithBorrow closestDayOfMonth = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth, daysOfMonth, input, maximumDaysInPreviousMonth);
+
+                if (closestDayOfMonth == null) {
+                    int monthsToGoBack = getMonthsToGoBackForDayOfMonth(currentYear, currentMonth);
+
+                    if (monthsToGoBack == NOT_FOUND) {
+                        return null;
                     }
-                } while (closestDayOfMonth == null);
+                    // Borrowed from the month before currentMonth, as the match found
+                    currentMonth -= monthsToGoBack - 1;
+                    closestDayOfMonth = new ValueWithBorrow(getLastScheduledDayOfMonth(currentYear, currentMonth - 1), true);
+                }
 
                 // Build calendar for dayOfMonth
                 ret = new GregorianCalendar();
@@ -375,17 +1104,49 @@ public class RangerValidityScheduleEvaluator {
             return ret;
         }
 
-        private Calendar getClosestDayOfWeek(Calendar current, ValueWithBorrow closestMinute, ValueWithBorrow closestHour) throws Exception {
-            Calendar ret = null;
-            if (StringUtils.isNotBlank(recurrence.getSchedule().getDayOfWeek())) {
-                ValueWithBorrow input = new ValueWithBorrow();
+        /*
+        Called when neither a day up to the current day-of-month, nor one at the end of the previous month, is scheduled.
+        So the smallest scheduled day-of-month is greater than the current day, and the previous month is shorter than it:
+        the match is the last scheduled day of the closest earlier month that is long enough to have that smallest day.
+        As every second month has 31 days, this is at most 3 months back. Month may be out of 0..11, as with Calendar.
+        Returns how many months back from month that one is, or NOT_FOUND if the dayOfMonth mask has no day at all.
+         */
+        private int getMonthsToGoBackForDayOfMonth(int year, int month) {
+            int smallestDayOfMonth = daysOfMonth.getNext(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth.minimum, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth.maximum);
+
+            if (smallestDayOfMonth != ScheduledTimeMask.NO_MATCH) {
+                for (int monthsToGoBack = 2; monthsToGoBack <= MAX_MONTHS_TO_GO_BACK; monthsToGoBack++) {
+                    int candidateMonth = month - monthsToGoBack;
+
+                    if (EpochCalendar.getDaysInMonth(year + Math.floorDiv(candidateMonth, 12), Math.floorMod(candidateMonth, 12)) >= smallestDayOfMonth) {
+                        if (ValidityScheduleMetrics.isMetricsEnabled()) {
+                            ValidityScheduleMetrics.add(ValidityScheduleMetrics.Counter.MONTH_BACK_STEPS, monthsToGoBack);
+                        }
+                        return monthsToGoBack;
+                    }
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        private int getLastScheduledDayOfMonth(int year, int month) {
+            int daysInMonth = EpochCalendar.getDaysInMonth(year + Math.floorDiv(month, 12), Math.floorMod(month, 12));
 
-                input.setValue(current.get(Calendar.DAY_OF_WEEK));
-                input.setBorrow(closestHour.borrow);
+            return daysOfMonth.getPrevious(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth.minimum, daysInMonth);
+        }
+
+        private Calendar getClosestDayOfWeek(Calendar current, ValueWithBorrow closestMinute, ValueWithBorrow closestHour) {
+            Calendar ret = null;
+            if (isDayOfWeekSpecified) {
+                ValueWithBorrow input = new ValueWithBorrow(current.get(Calendar.DAY_OF_WEEK), closestHour.borrow);
 
 
                 ValueWithBorrow closestDayOfWeek = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek, daysOfWeek, input);
 
+                if (closestDayOfWeek == null) {
+                    return null;
+                }
+
                 int daysToGoback = closestHour.borrow ? 1 : 0;
                 int range = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.maximum - RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.minimum + 1;
 
@@ -424,7 +1185,7 @@ public class RangerValidityScheduleEvaluator {
             return cal.getActualMaximum(Calendar.DAY_OF_MONTH);
         }
 
-        private Calendar getEarlierCalendar(Calendar dayOfMonthCalendar, Calendar dayOfWeekCalendar) throws Exception {
+        private Calendar getEarlierCalendar(Calendar dayOfMonthCalendar, Calendar dayOfWeekCalendar) {
 
             Calendar withDayOfMonth = fillOutCalendar(dayOfMonthCalendar);
             if (LOG.isDebugEnabled()) {
@@ -436,7 +1197,9 @@ public class RangerValidityScheduleEvaluator {
                 LOG.debug("dayOfWeekCalendar:[" + (withDayOfWeek != null ? withDayOfWeek.getTime() : null) + "]");
             }
 
-            if (withDayOfMonth != null && withDayOfWeek != null) {
+            if ((dayOfMonthCalendar != null && withDayOfMonth == null) || (dayOfWeekCalendar != null && withDayOfWeek == null)) {
+                return null; // no month or year matches
+            } else if (withDayOfMonth != null && withDayOfWeek != null) {
                 return withDayOfMonth.after(withDayOfWeek) ? withDayOfMonth : withDayOfWeek;
             } else if (withDayOfMonth == null) {
                 return withDayOfWeek;
@@ -445,17 +1208,24 @@ public class RangerValidityScheduleEvaluator {
             }
         }
 
-        private Calendar fillOutCalendar(Calendar calendar) throws Exception {
+        private Calendar fillOutCalendar(Calendar calendar) {
             Calendar ret = null;
 
             if (calendar != null) {
                 ValueWithBorrow input = new ValueWithBorrow(calendar.get(Calendar.MONTH));
                 ValueWithBorrow closestMonth = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month, months, input);
 
-                input.setValue(calendar.get(Calendar.YEAR));
-                input.setBorrow(closestMonth.borrow);
+                if (closestMonth == null) {
+                    return null;
+                }
+
+                input = new ValueWithBorrow(calendar.get(Calendar.YEAR), closestMonth.borrow);
                 ValueWithBorrow closestYear = getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year, years, input);
 
+                if (closestYear == null) {
+                    return null;
+                }
+
                 // Build calendar
                 ret = (Calendar) calendar.clone();
                 ret.set(Calendar.YEAR, closestYear.value);
@@ -470,43 +1240,277 @@ public class RangerValidityScheduleEvaluator {
             return ret;
         }
 
-        private ValueWithBorrow getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, List<ScheduledTimeMatcher> searchList, ValueWithBorrow input) throws Exception {
-            return getPastFieldValueWithBorrow(fieldSpec, searchList, input, fieldSpec.maximum);
+        /*
+        Same search as getClosestPastEpoch(Calendar), on epoch-day and minute-of-day ints; or, with SCHEDULED_DAYS, the
+        same minute and hour lookups followed by getClosestScheduledDay().
+        Input and returned values are milliseconds since epoch in local (wall-clock) time. Returns NO_EPOCH if none is found.
+        Seconds are zeroed, as by fillOutCalendar(). Milliseconds are kept as the Calendar engine leaves them: a dayOfWeek
+        match keeps the millisecond-of-second of access-time, and a dayOfMonth match - built from a new GregorianCalendar -
+        is treated as the end of its second.
+         */
+        long getClosestPastEpochMinute(long localMinute) {
+            long ret = getClosestPastEpochTime(localMinute * EpochCalendar.MILLIS_PER_MINUTE);
+
+            return ret == NO_EPOCH ? NO_EPOCH : Math.floorDiv(ret, EpochCalendar.MILLIS_PER_MINUTE);
+        }
+
+        long getClosestPastEpochTime(long localTime) {
+            long localMinute = Math.floorDiv(localTime, EpochCalendar.MILLIS_PER_MINUTE);
+            long epochDay = Math.floorDiv(localMinute, (long) EpochCalendar.MINUTES_PER_DAY);
+            int minuteOfDay = (int) (localMinute - epochDay * EpochCalendar.MINUTES_PER_DAY);
+
+            int closestMinute = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute, minutes, minuteOfDay % EpochCalendar.MINUTES_PER_HOUR, false, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute.maximum);
+            if (closestMinute == NOT_FOUND) {
+                return NO_EPOCH;
+            }
+            int closestHour = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour, hours, minuteOfDay / EpochCalendar.MINUTES_PER_HOUR, getBorrow(closestMinute), RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour.maximum);
+            if (closestHour == NOT_FOUND) {
+                return NO_EPOCH;
+            }
+            if (engine == EvaluationEngine.SCHEDULED_DAYS) {
+                return getClosestPastEpochTime(localTime, epochDay, closestMinute, closestHour);
+            }
+            int minuteOfClosestDay = getValue(closestHour) * EpochCalendar.MINUTES_PER_HOUR + getValue(closestMinute);
+
+            long withDayOfMonth = NO_EPOCH;
+            long withDayOfWeek = NO_EPOCH;
+
+            if (isDayOfMonthSpecified) {
+                long day = getClosestDayOfMonth(epochDay, getBorrow(closestHour));
+                long epochMinute = day == NO_EPOCH ? NO_EPOCH : fillOutEpochMinute(day, minuteOfClosestDay);
+                if (epochMinute == NO_EPOCH) {
+                    return NO_EPOCH;
+                }
+                withDayOfMonth = epochMinute * EpochCalendar.MILLIS_PER_MINUTE + EpochCalendar.MILLIS_PER_SECOND - 1;
+            }
+            if (isDayOfWeekSpecified) {
+                long day = getClosestDayOfWeek(epochDay, getBorrow(closestHour));
+                long epochMinute = day == NO_EPOCH ? NO_EPOCH : fillOutEpochMinute(day, minuteOfClosestDay);
+                if (epochMinute == NO_EPOCH) {
+                    return NO_EPOCH;
+                }
+                withDayOfWeek = epochMinute * EpochCalendar.MILLIS_PER_MINUTE + Math.floorMod(localTime, EpochCalendar.MILLIS_PER_SECOND);
+            }
+            return Math.max(withDayOfMonth, withDayOfWeek);
+        }
+
+        // Closest minute and hour on the closest scheduled day up to the day of that hour; a day matched by both keeps dayOfMonth's milliseconds
+        private long getClosestPastEpochTime(long localTime, long epochDay, int closestMinute, int closestHour) {
+            long day = getClosestScheduledDay(epochDay - (getBorrow(closestHour) ? 1 : 0));
+            if (day == NO_EPOCH) {
+                return NO_EPOCH;
+            }
+            long epochMinute = day * EpochCalendar.MINUTES_PER_DAY + getValue(closestHour) * EpochCalendar.MINUTES_PER_HOUR + getValue(closestMinute);
+            boolean isDayOfMonthMatch = isDayOfMonthSpecified && isScheduled(daysOfMonth, EpochCalendar.getDayOfMonth(EpochCalendar.toYearMonthDay(day)));
+
+            return epochMinute * EpochCalendar.MILLIS_PER_MINUTE + (isDayOfMonthMatch ? EpochCalendar.MILLIS_PER_SECOND - 1 : Math.floorMod(localTime, EpochCalendar.MILLIS_PER_SECOND));
         }
 
-        private ValueWithBorrow getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, List<ScheduledTimeMatcher> searchList, ValueWithBorrow input, int maximum) throws Exception {
+        private long getClosestDayOfMonth(long epochDay, boolean hourBorrow) {
+            int yearMonthDay = EpochCalendar.toYearMonthDay(epochDay);
+            int currentYear = EpochCalendar.getYear(yearMonthDay), currentMonth = EpochCalendar.getMonth(yearMonthDay), currentDayOfMonth = EpochCalendar.getDayOfMonth(yearMonthDay);
+            int maximumDaysInPreviousMonth = EpochCalendar.getDaysInPreviousMonth(currentYear, currentMonth);
+
+            if (hourBorrow && currentDayOfMonth == 1) {
+                // Need to borrow from previous month
+                currentMonth--;
+                if (currentMonth < 0) {
+                    currentMonth = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month.maximum;
+                    currentYear--;
+                }
+                currentDayOfMonth = EpochCalendar.getDaysInMonth(currentYear, currentMonth);
+                maximumDaysInPreviousMonth = EpochCalendar.getDaysInPreviousMonth(currentYear, currentMonth);
+            }
+            int closestDayOfMonth = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth, daysOfMonth, currentDayOfMonth, false, maximumDaysInPreviousMonth);
 
-            ValueWithBorrow ret;
-            boolean borrow = false;
+            if (closestDayOfMonth != NOT_FOUND) {
+                return EpochCalendar.toEpochDay(currentYear, currentMonth - (getBorrow(closestDayOfMonth) ? 1 : 0), getValue(closestDayOfMonth));
+            }
 
-            int value = input.value - (input.borrow ? 1 : 0);
+            int monthsToGoBack = getMonthsToGoBackForDayOfMonth(currentYear, currentMonth);
 
-            if (CollectionUtils.isNotEmpty(searchList)) {
-                int range = fieldSpec.maximum - fieldSpec.minimum + 1;
+            return monthsToGoBack == NOT_FOUND ? NO_EPOCH : EpochCalendar.toEpochDay(currentYear, currentMonth - monthsToGoBack, getLastScheduledDayOfMonth(currentYear, currentMonth - monthsToGoBack));
+        }
+
+        private long getClosestDayOfWeek(long epochDay, boolean hourBorrow) {
+            int dayOfWeek = EpochCalendar.getDayOfWeek(epochDay);
+            int closestDayOfWeek = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek, daysOfWeek, dayOfWeek, hourBorrow, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.maximum);
+
+            if (closestDayOfWeek == NOT_FOUND) {
+                return NO_EPOCH;
+            }
+            int daysToGoback = hourBorrow ? 1 : 0;
+            int range = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.maximum - RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.minimum + 1;
+
+            if (getBorrow(closestDayOfWeek)) {
+                if (dayOfWeek - getValue(closestDayOfWeek) != daysToGoback) {
+                    daysToGoback = range + dayOfWeek - getValue(closestDayOfWeek);
+                }
+            } else {
+                daysToGoback = dayOfWeek - getValue(closestDayOfWeek);
+            }
+            return epochDay - daysToGoback;
+        }
+
+        private long fillOutEpochMinute(long epochDay, int minuteOfDay) {
+            int yearMonthDay = EpochCalendar.toYearMonthDay(epochDay);
+
+            int closestMonth = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month, months, EpochCalendar.getMonth(yearMonthDay), false, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month.maximum);
+            if (closestMonth == NOT_FOUND) {
+                return NO_EPOCH;
+            }
+            int closestYear = findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year, years, EpochCalendar.getYear(yearMonthDay), getBorrow(closestMonth), RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year.maximum);
+            if (closestYear == NOT_FOUND) {
+                return NO_EPOCH;
+            }
+            long closestEpochDay = EpochCalendar.toEpochDay(getValue(closestYear), getValue(closestMonth), EpochCalendar.getDayOfMonth(yearMonthDay));
 
-                for (int i = 0; i < range; i++, value--) {
-                    if (value < fieldSpec.minimum) {
-                        value = maximum;
-                        borrow = true;
+            return closestEpochDay * EpochCalendar.MINUTES_PER_DAY + minuteOfDay;
+        }
+
+        /*
+        Latest day, up to epochDay, whose month and year are scheduled and whose dayOfMonth or dayOfWeek is - when both are
+        specified, the later of the days matched by either, as with getEarlierCalendar(). Found by a backwards scan of the
+        bitmap of scheduled days of epochDay's year, then of each earlier scheduled year, going back at most as many years
+        as findPastFieldValue() counts down. Returns NO_EPOCH if there is none.
+         */
+        private long getClosestScheduledDay(long epochDay) {
+            int year = EpochCalendar.getYear(EpochCalendar.toYearMonthDay(epochDay));
+            int lowestYear = year - (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year.maximum - RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year.minimum);
+            long yearStart = EpochCalendar.toEpochDay(year, 0, 1);
+            int dayOfYear = (int) (epochDay - yearStart);
+
+            while (year >= lowestYear) {
+                if (isScheduled(years, year)) {
+                    int day = getScheduledDays(year, yearStart).previousSetBit(dayOfYear);
+
+                    if (day >= 0) {
+                        return yearStart + day;
+                    }
+                    year--;
+                } else {
+                    year = years.getPrevious(lowestYear, year - 1);
+
+                    if (year == ScheduledTimeMask.NO_MATCH) {
+                        break;
                     }
-                    for (ScheduledTimeMatcher time : searchList) {
-                        if (time.isMatch(value)) {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("Found match in field:[" + fieldSpec + "], value:[" + value + "], borrow:[" + borrow + "], maximum:[" + maximum + "]");
+                }
+                yearStart = EpochCalendar.toEpochDay(year, 0, 1);
+                dayOfYear = DAYS_IN_LEAP_YEAR - 1;
+            }
+            return NO_EPOCH;
+        }
+
+        /*
+        Bitmap of the scheduled days of year, by day-of-year, not considering the years field. It depends only on whether
+        year is a leap year and on the day-of-week of its first day, so it is built once per such shape, when first needed,
+        and shared by all years of that shape. A bitmap is not modified once published; threads that race to build the
+        same one build equal bitmaps.
+         */
+        private BitSet getScheduledDays(int year, long yearStart) {
+            int dayOfWeek = EpochCalendar.getDayOfWeek(yearStart);
+            int shape = (EpochCalendar.isLeapYear(year) ? 7 : 0) + dayOfWeek - RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek.minimum;
+            BitSet ret = scheduledDaysByYearShape.get(shape);
+
+            if (ret == null) {
+                ret = new BitSet(DAYS_IN_LEAP_YEAR);
+
+                for (int month = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month.minimum, dayOfYear = 0; month <= RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month.maximum; month++) {
+                    int daysInMonth = EpochCalendar.getDaysInMonth(year, month);
+
+                    if (isScheduled(months, month)) {
+                        for (int dayOfMonth = 1; dayOfMonth <= daysInMonth; dayOfMonth++, dayOfYear++, dayOfWeek = dayOfWeek % 7 + 1) {
+                            if ((isDayOfMonthSpecified && isScheduled(daysOfMonth, dayOfMonth)) || (isDayOfWeekSpecified && isScheduled(daysOfWeek, dayOfWeek))) {
+                                ret.set(dayOfYear);
                             }
-                            return new ValueWithBorrow(value, borrow);
                         }
+                    } else {
+                        dayOfYear += daysInMonth;
+                        dayOfWeek = (dayOfWeek - 1 + daysInMonth) % 7 + 1;
+                    }
+                }
+                scheduledDaysByYearShape.set(shape, ret);
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("getScheduledDays(year=" + year + "): " + ret.cardinality() + " days");
+                }
+            }
+            return ret;
+        }
+
+        // A blank field - with an empty mask - schedules every value, as in findPastFieldValue()
+        private static boolean isScheduled(ScheduledTimeMask mask, int value) {
+            return mask.isEmpty() || mask.isMatch(value);
+        }
+
+        private ValueWithBorrow getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, ScheduledTimeMask mask, ValueWithBorrow input) {
+            return getPastFieldValueWithBorrow(fieldSpec, mask, input, fieldSpec.maximum);
+        }
+
+        // Returns null if no value matches
+        private ValueWithBorrow getPastFieldValueWithBorrow(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, ScheduledTimeMask mask, ValueWithBorrow input, int maximum) {
+            int found = findPastFieldValue(fieldSpec, mask, input.value, input.borrow, maximum);
+
+            return found == NOT_FOUND ? null : new ValueWithBorrow(getValue(found), getBorrow(found));
+        }
+
+        /*
+        Counts down from value (less one, if borrow is set) through at most (fieldSpec.maximum - fieldSpec.minimum + 1)
+        values, wrapping around to maximum with a borrow when dropping below fieldSpec.minimum. The countdown is done as
+        at most two masked highest-bit lookups - one for the values before the wrap-around and one for the values after it.
+        Returns the value found and its borrow packed into an int (see getValue() and getBorrow()), or NOT_FOUND.
+         */
+        private int findPastFieldValue(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec fieldSpec, ScheduledTimeMask mask, int value, boolean borrow, int maximum) {
+
+            int ret;
+
+            value -= borrow ? 1 : 0;
+
+            if (!mask.isEmpty()) {
+                int range = fieldSpec.maximum - fieldSpec.minimum + 1;
+                int remaining = range;
+                boolean wrapped = false;
+                int match = ScheduledTimeMask.NO_MATCH;
+
+                if (value >= fieldSpec.minimum) {
+                    int lowerBound = Math.max(fieldSpec.minimum, value - range + 1);
+                    match = mask.getPrevious(lowerBound, value);
+                    remaining -= value - lowerBound + 1;
+                }
+                if (match == ScheduledTimeMask.NO_MATCH && remaining > 0) {
+                    wrapped = true;
+                    match = mask.getPrevious(Math.max(fieldSpec.minimum, maximum - remaining + 1), maximum);
+                }
+                if (match == ScheduledTimeMask.NO_MATCH) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("No match found in field:[" + fieldSpec + "] for [value=" + value + ", maximum=" + maximum + "]");
+                    }
+                    ret = NOT_FOUND;
+                } else {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Found match in field:[" + fieldSpec + "], value:[" + match + "], borrow:[" + wrapped + "], maximum:[" + maximum + "]");
                     }
+                    ret = toValueWithBorrow(match, wrapped);
                 }
-                // Not found
-                throw new Exception("No match found in field:[" + fieldSpec + "] for [input=" + input + "]");
             } else {
                 if (value < fieldSpec.minimum) {
                     value = maximum;
                 }
-                ret = new ValueWithBorrow(value, false);
+                ret = toValueWithBorrow(value, false);
             }
             return ret;
         }
+
+        private static int toValueWithBorrow(int value, boolean borrow) {
+            return (value << 1) | (borrow ? 1 : 0);
+        }
+
+        private static int getValue(int valueWithBorrow) {
+            return valueWithBorrow >> 1;
+        }
+
+        private static boolean getBorrow(int valueWithBorrow) {
+            return (valueWithBorrow & 1) != 0;
+        }
     }
 }
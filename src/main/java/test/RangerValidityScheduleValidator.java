@@ -20,19 +20,14 @@
 package test;
 /*package org.apache.ranger.plugin.model.validation;*/
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -72,11 +67,16 @@ public class RangerValidityScheduleValidator {
             } catch (ParseException exception) {
                 LOG.error("Error parsing startTime:[" + validitySchedule.getStartTime() + "], and/or "
                         + "endTime:[" + validitySchedule.getEndTime() + "]", exception);
+                if (ValidityScheduleMetrics.isMetricsEnabled()) {
+                    ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.PARSE_FAILURES);
+                }
             }
         }
     }
 
     public RangerValiditySchedule validate(List<ValidationFailureDetails> validationFailures) {
+        ValidityScheduleFlightRecorder.ValidationEvent event = ValidityScheduleFlightRecorder.beginValidation();
+        int initialFailures = validationFailures.size();
         RangerValiditySchedule ret = null;
 
         if (validitySchedule != null) {
@@ -102,6 +102,10 @@ public class RangerValidityScheduleValidator {
         } else {
             validationFailures.add(new ValidationFailureDetails(0, "", "", true, true, false, "validitySchedule is empty/null"));
         }
+
+        if (event != null) {
+            ValidityScheduleFlightRecorder.commitValidation(event, validitySchedule == null ? 0 : validitySchedule.getRecurrences().size(), validationFailures.size() - initialFailures, ret != null);
+        }
         return ret;
     }
 
@@ -119,19 +123,24 @@ public class RangerValidityScheduleValidator {
             ret = validateValidityInterval(recurrence, validationFailures) && ret;
 
             if (RangerValidityRecurrence.ValidityInterval.getValidityIntervalInMinutes(recurrence.getInterval()) > 0) {
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute, validationFailures) && ret;
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour, validationFailures) && ret;
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth, validationFailures) && ret;
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek, validationFailures) && ret;
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month, validationFailures) && ret;
-                ret = validateFieldSpec(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year, validationFailures) && ret;
+                ValidityScheduleFlightRecorder.CompileEvent event = ValidityScheduleFlightRecorder.beginCompile();
+                CompiledRecurrenceSchedule compiledSchedule = CompiledRecurrenceSchedule.compile(recurrence.getSchedule());
+
+                if (event != null) {
+                    ValidityScheduleFlightRecorder.commitCompile(event, RangerValidityScheduleValidator.class.getSimpleName(), 0, String.valueOf(recurrence.getSchedule()), 1);
+                }
+
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute), validationFailures) && ret;
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour), validationFailures) && ret;
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth), validationFailures) && ret;
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek), validationFailures) && ret;
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month), validationFailures) && ret;
+                ret = validateFieldSpec(compiledSchedule.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year), validationFailures) && ret;
                 ret = ret && validateIntervalDuration(recurrence, validationFailures);
 
                 if (ret) {
-                    RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule(getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute), getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour),
-                            getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth), getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek),
-                            getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month), getNormalizedValue(recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year));
-                    RangerValidityRecurrence normalizedRecurrence = new RangerValidityRecurrence(schedule, recurrence.getInterval());
+                    RangerValidityRecurrence normalizedRecurrence = new RangerValidityRecurrence(compiledSchedule.getNormalizedSchedule(), recurrence.getInterval());
+                    normalizedRecurrence.setCompiledSchedule(compiledSchedule); // so that evaluators of the normalized schedule need not compile it again
                     normalizedValiditySchedule.getRecurrences().add(normalizedRecurrence);
 
                 }
@@ -180,11 +189,11 @@ public class RangerValidityScheduleValidator {
         return ret;
     }
 
-    private boolean validateFieldSpec(RangerValidityRecurrence recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field, List<ValidationFailureDetails> validationFailures) {
+    private boolean validateFieldSpec(CompiledRecurrenceSchedule.CompiledField compiledField, List<ValidationFailureDetails> validationFailures) {
         boolean ret = true;
 
-        String fieldValue = recurrence.getSchedule().getFieldValue(field);
-        if (StringUtils.isBlank(fieldValue)) {
+        RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field = compiledField.getField();
+        if (compiledField.isBlank()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No value provided for [" + field + "]");
             }
@@ -197,30 +206,12 @@ public class RangerValidityScheduleValidator {
                 validationFailures.add(new ValidationFailureDetails(0, field.toString(), "", false, true, false, "No value provided"));
             }
         }
-        ret = validateCharacters(fieldValue, field.specialChars);
+        ret = !compiledField.hasInvalidCharacters();
 
         if (!ret) {
             validationFailures.add(new ValidationFailureDetails(0, field.toString(), "", false, true, false, "invalid character(s)"));
         } else {
-            // Valid month values in java.util.Date are from 1-12, in java.util.Calendar from 0 to 11
-            // Internally we use Calendar values for validation and evaluation
-            int minimum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.minimum + 1 : field.minimum;
-            int maximum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.maximum + 1 : field.maximum;
-            ret = validateRanges(recurrence, field, minimum, maximum, validationFailures);
-        }
-        return ret;
-    }
-
-    private boolean validateCharacters(String str, String permittedCharacters) {
-        boolean ret = true;
-        if (StringUtils.isNotBlank(str)) {
-            char[] chars = str.toCharArray();
-            for (char c : chars) {
-                if (!(Character.isDigit(c) || Character.isWhitespace(c) || StringUtils.contains(permittedCharacters, c))) {
-                    ret = false;
-                    break;
-                }
-            }
+            ret = validateRanges(compiledField, validationFailures);
         }
         return ret;
     }
@@ -285,179 +276,23 @@ public class RangerValidityScheduleValidator {
         return ret;
     }
 
-    private boolean validateRanges(RangerValidityRecurrence recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field, int minValidValue, int maxValidValue, List<ValidationFailureDetails> validationFailures) {
-        boolean ret = true;
+    private boolean validateRanges(CompiledRecurrenceSchedule.CompiledField compiledField, List<ValidationFailureDetails> validationFailures) {
+        boolean ret = compiledField.isValid();
 
-        String value = null;
-        String fieldName = field.toString();
-
-        String noWhiteSpace = StringUtils.deleteWhitespace(recurrence.getSchedule().getFieldValue(field));
-        String[] specs = StringUtils.split(noWhiteSpace, ",");
-        class Range {
-            private int lower;
-            private int upper;
-            private Range(int lower, int upper) {
-                this.lower = lower;
-                this.upper = upper;
-            }
-        }
-        class RangeComparator implements Comparator<Range>, Serializable {
-            @Override
-            public int compare(Range me, Range other) {
-                int result;
-                result = Integer.compare(me.lower, other.lower);
-                if (result == 0) {
-                    result = Integer.compare(me.upper, other.upper);
-                }
-                return result;
-            }
-        }
+        String fieldName = compiledField.getField().toString();
 
-        List<Range> rangeOfValues = new ArrayList<>();
-
-        List<Integer> values = new ArrayList<>();
-
-        for (String spec : specs) {
-
-            if (StringUtils.isNotEmpty(spec)) {
-                // Range
-                if (spec.startsWith("-") || spec.endsWith("-")) {
-                    validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect range spec"));
-                    ret = false;
-                } else {
-                    String[] ranges = StringUtils.split(spec, "-");
-                    if (ranges.length > 2) {
-                        validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect range spec"));
-                        ret = false;
-                    } else if (ranges.length == 2) {
-                        int val1 = minValidValue, val2 = maxValidValue;
-                        if (!StringUtils.equals(ranges[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                            val1 = Integer.valueOf(ranges[0]);
-                            if (val1 < minValidValue || val1 > maxValidValue) {
-                                validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect lower range value"));
-                                ret = false;
-                            }
-                        } else {
-                            value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
-                        }
-                        if (!StringUtils.equals(ranges[1], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                            val2 = Integer.valueOf(ranges[1]);
-                            if (val1 < minValidValue || val2 > maxValidValue) {
-                                validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect upper range value"));
-                                ret = false;
-                            }
-                        } else {
-                            value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
-                        }
-                        if (ret) {
-                            if (val1 >= val2) {
-                                validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect range"));
-                                ret = false;
-                            } else {
-                                value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
-                                for (Range range : rangeOfValues) {
-                                    if (range.lower == val1 || range.upper == val2) {
-                                        validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "duplicate range"));
-                                        ret = false;
-                                        break;
-                                    }
-                                }
-                                if (ret) {
-                                    rangeOfValues.add(new Range(val1, val2));
-                                }
-                            }
-                        }
-                    } else if (ranges.length == 1) {
-                        if (!StringUtils.equals(ranges[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                            int val = Integer.valueOf(ranges[0]);
-                            if (val < minValidValue || val > maxValidValue) {
-                                validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "incorrect value"));
-                                ret = false;
-                            } else {
-                                if (!StringUtils.equals(value, RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
-                                    values.add(Integer.valueOf(ranges[0]));
-                                }
-                            }
-                        } else {
-                            value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
-                        }
-                    } else {
-                        ret = false;
-                    }
-                }
-            }
+        for (String failure : compiledField.getFailures()) {
+            validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, failure));
+        }
+        if (compiledField.getFormatException() != null) {
+            throw compiledField.getFormatException();
         }
-        //if (ret) {
-            if (CollectionUtils.isNotEmpty(rangeOfValues)) {
-                rangeOfValues.sort( new RangeComparator());
-            }
-            for (int i = 0; i < rangeOfValues.size(); i++) {
-                Range range = rangeOfValues.get(i);
-                int upper = range.upper;
-                for (int j = i+1; j < rangeOfValues.size(); j++) {
-                    Range r = rangeOfValues.get(j);
-                    if (upper < r.upper) {
-                        validationFailures.add(new ValidationFailureDetails(0, fieldName, "", false, true, false, "overlapping range value"));
-                        ret = false;
-                    }
-                }
-            }
-        //}
         if (ret) {
-            if (!StringUtils.equals(value, RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+            String value = compiledField.getPeriodEstimate();
 
-                int minDiff = (values.size() <= 1) ?  maxValidValue + 1 : Integer.MAX_VALUE;
-
-                if (values.size() > 1) {
-                    Collections.sort(values);
-                    for (int i = 0; i < values.size() - 1; i++) {
-                        int diff = values.get(i + 1) - values.get(i);
-                        if (diff < minDiff) {
-                            minDiff = diff;
-                        }
-                        int firstLastDiff = values.get(0) + (maxValidValue - minValidValue + 1) - values.get(values.size() - 1);
-
-                        if (minDiff > firstLastDiff) {
-                            minDiff = firstLastDiff;
-                        }
-                    }
-                }
-                if (values.size() > 0) {
-                    value = Integer.toString(minDiff);
-                }
-            }
-            validityPeriodEstimator.setFieldValue(field, value);
+            validityPeriodEstimator.setFieldValue(compiledField.getField(), value);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Set " + field + " to " + value);
-            }
-        }
-        return ret;
-    }
-
-    private String getNormalizedValue(RangerValidityRecurrence recurrence, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field) {
-        String ret = null;
-
-        if (RangerValidityRecurrence.ValidityInterval.getValidityIntervalInMinutes(recurrence.getInterval()) > 0) {
-            String noWhiteSpace = StringUtils.deleteWhitespace(recurrence.getSchedule().getFieldValue(field));
-            String[] specs = StringUtils.split(noWhiteSpace, ",");
-
-            List<String> values = new ArrayList<>();
-
-            for (String spec : specs) {
-                if (StringUtils.isNotBlank(spec)) {
-                    values.add(spec);
-                }
-            }
-            if (values.size() > 0) {
-                Collections.sort(values);
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < values.size(); i++) {
-                    if (i != 0) {
-                        sb.append(",");
-                    }
-                    sb.append(values.get(i));
-                }
-                ret = sb.toString();
+                LOG.debug("Set " + compiledField.getField() + " to " + value);
             }
         }
         return ret;
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+/*
+    Compiled form of one ScheduleFieldSpec of a recurrence schedule.
+    Bit i is set when value (minimum + i) is scheduled. Two words are enough for every field - minute, hour, dayOfMonth,
+    dayOfWeek and month fit in the low word, and the 2017-2100 year range spills into the high word.
+    An empty mask means that the field was not specified (blank) in the schedule.
+ */
+public final class ScheduledTimeMask implements ScheduledTimeMatcher {
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    static final int CAPACITY = 2 * Long.SIZE;
+
+    private final int minimum;
+    private final long low;
+    private final long high;
+
+    public ScheduledTimeMask(int minimum, long low, long high) {
+        this.minimum = minimum;
+        this.low = low;
+        this.high = high;
+    }
+
+    public int getMinimum() { return minimum; }
+    public long getLow() { return low; }
+    public long getHigh() { return high; }
+
+    public boolean isEmpty() {
+        return low == 0L && high == 0L;
+    }
+
+    @Override
+    public boolean isMatch(int targetTime) {
+        int index = targetTime - minimum;
+        if (index < 0 || index >= CAPACITY) {
+            return false;
+        }
+        return index < Long.SIZE ? (low & (1L << index)) != 0L : (high & (1L << (index - Long.SIZE))) != 0L;
+    }
+
+    /*
+    Returns the greatest scheduled value in [lowerBound, upperBound], or NO_MATCH if there is none
+     */
+    public int getPrevious(int lowerBound, int upperBound) {
+        int from = Math.max(lowerBound - minimum, 0);
+        int to   = Math.min(upperBound - minimum, CAPACITY - 1);
+
+        if (from <= to) {
+            if (to >= Long.SIZE) {
+                long word = high & rangeMask(Math.max(from, Long.SIZE) - Long.SIZE, to - Long.SIZE);
+                if (word != 0L) {
+                    return minimum + Long.SIZE + highestBitIndex(word);
+                }
+            }
+            if (from < Long.SIZE) {
+                long word = low & rangeMask(from, Math.min(to, Long.SIZE - 1));
+                if (word != 0L) {
+                    return minimum + highestBitIndex(word);
+                }
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /*
+    Returns the smallest scheduled value in [lowerBound, upperBound], or NO_MATCH if there is none
+     */
+    public int getNext(int lowerBound, int upperBound) {
+        int from = Math.max(lowerBound - minimum, 0);
+        int to   = Math.min(upperBound - minimum, CAPACITY - 1);
+
+        if (from <= to) {
+            if (from < Long.SIZE) {
+                long word = low & rangeMask(from, Math.min(to, Long.SIZE - 1));
+                if (word != 0L) {
+                    return minimum + Long.numberOfTrailingZeros(word);
+                }
+            }
+            if (to >= Long.SIZE) {
+                long word = high & rangeMask(Math.max(from, Long.SIZE) - Long.SIZE, to - Long.SIZE);
+                if (word != 0L) {
+                    return minimum + Long.SIZE + Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+        return NO_MATCH;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ScheduledTimeMask={");
+        sb.append("minimum=").append(minimum);
+        sb.append(", low=").append(Long.toHexString(low));
+        sb.append(", high=").append(Long.toHexString(high));
+        sb.append("}");
+
+        return sb.toString();
+    }
+
+    private static long rangeMask(int from, int to) {
+        return (-1L >>> (Long.SIZE - 1 - to)) & (-1L << from);
+    }
+
+    private static int highestBitIndex(long word) {
+        return Long.numberOfTrailingZeros(Long.highestOneBit(word));
+    }
+
+    static class Builder {
+        private final int minimum;
+        private long low;
+        private long high;
+
+        Builder(int minimum) {
+            this.minimum = minimum;
+        }
+
+        Builder addAll() {
+            low = -1L;
+            high = -1L;
+            return this;
+        }
+
+        Builder add(int value) {
+            int index = value - minimum;
+            if (index >= 0 && index < CAPACITY) {
+                if (index < Long.SIZE) {
+                    low |= 1L << index;
+                } else {
+                    high |= 1L << (index - Long.SIZE);
+                }
+            }
+            return this;
+        }
+
+        // Both bounds always match, values in between only if lower < upper - as range matching always has
+        Builder addRange(int lowerBound, int upperBound) {
+            add(lowerBound);
+            add(upperBound);
+            int last = Math.min(upperBound - 1, minimum + CAPACITY - 1);
+            for (int value = Math.max(lowerBound + 1, minimum); value <= last; value++) {
+                add(value);
+            }
+            return this;
+        }
+
+        ScheduledTimeMask build() {
+            return new ScheduledTimeMask(minimum, low, high);
+        }
+    }
+}
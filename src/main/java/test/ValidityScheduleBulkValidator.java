@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+    Validates a bundle of schedules, and builds an evaluator for each valid one, in parallel. Schedules are independent,
+    so the bundle is split into contiguous chunks that run as separate tasks on the executor - the common ForkJoinPool
+    unless one is given - and the calling thread waits for all of them. Bundles of up to MIN_CHUNK_SIZE schedules are
+    validated on the calling thread.
+
+    A schedule that makes its validator throw is reported with an internal-error failure, rather than failing the bundle.
+ */
+public class ValidityScheduleBulkValidator {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleBulkValidator.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleBulkValidator");
+
+    private static final String PERF_TAG_VALIDATE = "ValidityScheduleBulkValidator.validate()";
+
+    static final int MIN_CHUNK_SIZE    = 64;
+    static final int CHUNKS_PER_THREAD = 4;
+
+    private final Executor                                         executor;
+    private final int                                              parallelism;
+    private final RangerValidityScheduleEvaluator.EvaluationEngine engine;
+
+    public ValidityScheduleBulkValidator() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(), RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
+
+    // parallelism is the number of tasks the executor can run at once, used to size chunks
+    public ValidityScheduleBulkValidator(@Nonnull Executor executor, int parallelism, RangerValidityScheduleEvaluator.EvaluationEngine engine) {
+        this.executor = executor;
+        this.parallelism = Math.max(parallelism, 1);
+        this.engine = engine;
+    }
+
+    public BulkValidationResult validate(@Nonnull Collection<RangerValiditySchedule> validitySchedules) {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_VALIDATE);
+        }
+
+        final RangerValiditySchedule[] schedules = validitySchedules.toArray(new RangerValiditySchedule[0]);
+        final ScheduleResult[] results = new ScheduleResult[schedules.length];
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (schedules.length + parallelism * CHUNKS_PER_THREAD - 1) / (parallelism * CHUNKS_PER_THREAD));
+
+        if (schedules.length <= chunkSize) {
+            validate(schedules, results, 0, schedules.length);
+        } else {
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+
+            for (int from = 0; from < schedules.length; from += chunkSize) {
+                final int chunkFrom = from;
+                final int chunkTo = Math.min(from + chunkSize, schedules.length);
+
+                chunks.add(CompletableFuture.runAsync(() -> validate(schedules, results, chunkFrom, chunkTo), executor));
+            }
+            try {
+                CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException exception) {
+                throw new IllegalStateException("validation of schedules failed", exception.getCause());
+            }
+        }
+
+        BulkValidationResult ret = new BulkValidationResult(results);
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("validate(count=" + schedules.length + ", chunkSize=" + chunkSize + "): " + ret.getValidationFailures().size() + " failures");
+        }
+        return ret;
+    }
+
+    private void validate(RangerValiditySchedule[] schedules, ScheduleResult[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            List<ValidationFailureDetails> validationFailures = new ArrayList<>();
+            RangerValiditySchedule normalizedSchedule = null;
+            RangerValidityScheduleEvaluator evaluator = null;
+
+            try {
+                normalizedSchedule = new RangerValidityScheduleValidator(schedules[i]).validate(validationFailures);
+
+                if (normalizedSchedule != null) {
+                    evaluator = new RangerValidityScheduleEvaluator(normalizedSchedule, engine);
+                }
+            } catch (RuntimeException exception) {
+                LOG.error("Error validating validitySchedule:[" + schedules[i] + "]", exception);
+
+                normalizedSchedule = null;
+                validationFailures.add(new ValidationFailureDetails(0, "validitySchedule", "", false, false, true, "validation error: " + exception));
+            }
+            results[i] = new ScheduleResult(normalizedSchedule, evaluator, validationFailures);
+        }
+    }
+
+    private static final class ScheduleResult {
+        final RangerValiditySchedule          normalizedSchedule;
+        final RangerValidityScheduleEvaluator evaluator;
+        final List<ValidationFailureDetails>  validationFailures;
+
+        ScheduleResult(RangerValiditySchedule normalizedSchedule, RangerValidityScheduleEvaluator evaluator, List<ValidationFailureDetails> validationFailures) {
+            this.normalizedSchedule = normalizedSchedule;
+            this.evaluator = evaluator;
+            this.validationFailures = Collections.unmodifiableList(validationFailures);
+        }
+    }
+
+    /*
+    Results by index of the schedule in the validated collection's iteration order. getValidationFailures() merges the
+    failures of all schedules, in that order; getFailureScheduleIndices()[i] is the index of the schedule of failure i.
+     */
+    public static final class BulkValidationResult {
+        private final ScheduleResult[]               results;
+        private final List<ValidationFailureDetails> validationFailures;
+        private final int[]                          failureScheduleIndices;
+
+        BulkValidationResult(ScheduleResult[] results) {
+            List<ValidationFailureDetails> validationFailures = new ArrayList<>();
+            int failureCount = 0;
+
+            for (ScheduleResult result : results) {
+                failureCount += result.validationFailures.size();
+            }
+
+            int[] failureScheduleIndices = new int[failureCount];
+
+            for (int i = 0; i < results.length; i++) {
+                for (ValidationFailureDetails validationFailure : results[i].validationFailures) {
+                    failureScheduleIndices[validationFailures.size()] = i;
+                    validationFailures.add(validationFailure);
+                }
+            }
+            this.results = results;
+            this.validationFailures = Collections.unmodifiableList(validationFailures);
+            this.failureScheduleIndices = failureScheduleIndices;
+        }
+
+        public int size() {
+            return results.length;
+        }
+
+        // true if every schedule is valid
+        public boolean isValid() {
+            for (ScheduleResult result : results) {
+                if (result.normalizedSchedule == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Normalized schedule, or null if the schedule is not valid
+        public RangerValiditySchedule getNormalizedSchedule(int index) {
+            return results[index].normalizedSchedule;
+        }
+
+        // Evaluator of the normalized schedule, or null if the schedule is not valid
+        public RangerValidityScheduleEvaluator getEvaluator(int index) {
+            return results[index].evaluator;
+        }
+
+        public List<ValidationFailureDetails> getValidationFailures(int index) {
+            return results[index].validationFailures;
+        }
+
+        public List<ValidationFailureDetails> getValidationFailures() {
+            return validationFailures;
+        }
+
+        public int[] getFailureScheduleIndices() {
+            return failureScheduleIndices.clone();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Interns evaluators: schedules with the same canonical key share one evaluator, along with its remembered validity
+    window. Meant for schedules normalized by RangerValidityScheduleValidator.validate(), whose field values are sorted,
+    so that equivalent schedules from different policies produce the same key.
+    At most maxSize evaluators are kept; the least recently used one is evicted to make room for another.
+ */
+public class ValidityScheduleEvaluatorCache {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleEvaluatorCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final char FIELD_SEPARATOR      = '|';
+    private static final char RECURRENCE_SEPARATOR = ';';
+
+    private final RangerValidityScheduleEvaluator.EvaluationEngine engine;
+    private final Map<String, RangerValidityScheduleEvaluator> evaluators;
+
+    public ValidityScheduleEvaluatorCache() {
+        this(DEFAULT_MAX_SIZE, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
+
+    public ValidityScheduleEvaluatorCache(int maxSize, RangerValidityScheduleEvaluator.EvaluationEngine engine) {
+        this.engine = engine;
+        this.evaluators = new LruMap(maxSize);
+    }
+
+    public RangerValidityScheduleEvaluator getEvaluator(@Nonnull RangerValiditySchedule normalizedSchedule) {
+        final String key = getCanonicalKey(normalizedSchedule);
+
+        RangerValidityScheduleEvaluator ret;
+
+        synchronized (evaluators) {
+            ret = evaluators.get(key);
+        }
+
+        if (ret == null) {
+            // built outside the lock; if another thread got there first, its evaluator is the one kept
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(normalizedSchedule, engine);
+
+            synchronized (evaluators) {
+                ret = evaluators.get(key);
+
+                if (ret == null) {
+                    evaluators.put(key, evaluator);
+                    ret = evaluator;
+                }
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("getEvaluator(key=" + key + "): " + (ret == evaluator ? "created" : "shared"));
+            }
+        }
+
+        return ret;
+    }
+
+    public int size() {
+        synchronized (evaluators) {
+            return evaluators.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (evaluators) {
+            evaluators.clear();
+        }
+    }
+
+    /*
+    Key made of everything that evaluation depends on. Recurrences are OR-ed by evaluation, so their order does not
+    matter and their keys are sorted. Interval days, hours and minutes are kept apart, not added up: CALENDAR adds days
+    by calendar day and hours by elapsed time, which differ across an offset change.
+     */
+    public static String getCanonicalKey(@Nonnull RangerValiditySchedule schedule) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(schedule.getStartTime()).append(FIELD_SEPARATOR);
+        sb.append(schedule.getEndTime()).append(FIELD_SEPARATOR);
+        sb.append(StringUtils.isBlank(schedule.getTimeZone()) ? "" : schedule.getTimeZone());
+
+        List<String> recurrenceKeys = new ArrayList<>();
+
+        for (RangerValidityRecurrence recurrence : schedule.getRecurrences()) {
+            StringBuilder recurrenceKey = new StringBuilder();
+            RangerValidityRecurrence.RecurrenceSchedule recurrenceSchedule = recurrence.getSchedule();
+
+            RangerValidityRecurrence.ValidityInterval interval = recurrence.getInterval();
+
+            recurrenceKey.append(interval == null ? 0 : interval.getDays()).append(FIELD_SEPARATOR);
+            recurrenceKey.append(interval == null ? 0 : interval.getHours()).append(FIELD_SEPARATOR);
+            recurrenceKey.append(interval == null ? 0 : interval.getMinutes());
+            for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field : RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values()) {
+                recurrenceKey.append(FIELD_SEPARATOR).append(recurrenceSchedule == null ? null : recurrenceSchedule.getFieldValue(field));
+            }
+            recurrenceKeys.add(recurrenceKey.toString());
+        }
+        Collections.sort(recurrenceKeys);
+
+        for (String recurrenceKey : recurrenceKeys) {
+            sb.append(RECURRENCE_SEPARATOR).append(recurrenceKey);
+        }
+
+        return sb.toString();
+    }
+
+    // Access-ordered map that drops its least recently used entry once it holds more than maxSize
+    private static final class LruMap extends LinkedHashMap<String, RangerValidityScheduleEvaluator> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RangerValidityScheduleEvaluator> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
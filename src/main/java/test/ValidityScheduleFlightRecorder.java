@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+    Java Flight Recorder events of validity schedules, to diagnose a running process without debug logging - which
+    floods the log and changes the timing being looked at:
+        test.ScheduleEvaluation - RangerValidityScheduleEvaluator.isApplicable(long)
+        test.ScheduleValidation - RangerValidityScheduleValidator.validate()
+        test.ScheduleCompile    - construction of a RangerValidityScheduleEvaluator, and compilation of a recurrence
+                                  by a RangerRecurrenceEvaluator or a RangerValidityScheduleValidator
+
+    Events are disabled by default, and recorded only when longer than their threshold. Enable them in the settings of a
+    recording, e.g. -XX:StartFlightRecording:settings=<file.jfc> or jcmd <pid> JFR.start settings=<file.jfc>, where
+    the .jfc file enables test.ScheduleEvaluation and, to see every evaluation, sets its threshold to 0 ms.
+
+    begin*() returns null unless the event is enabled in a running recording; callers then skip the event, so a
+    disabled event costs one check and allocates nothing.
+
+    This class does not depend on jdk.jfr, so that the module builds on any Java 8. The event classes are in
+    ValidityScheduleFlightRecorderEvents, under src/main/jfr - compiled by the jfr profile, active on JDK 11 or later -
+    and loaded by name: events are never enabled when that class was not built, or the Java runtime has no jdk.jfr.
+ */
+public final class ValidityScheduleFlightRecorder {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleFlightRecorder.class);
+
+    public static final String EVALUATION_EVENT = "test.ScheduleEvaluation";
+    public static final String VALIDATION_EVENT = "test.ScheduleValidation";
+    public static final String COMPILE_EVENT    = "test.ScheduleCompile";
+
+    static final String EVENTS_CLASS_NAME = "test.ValidityScheduleFlightRecorderEvents";
+
+    private static final Events EVENTS = loadEvents();
+
+    private ValidityScheduleFlightRecorder() {
+    }
+
+    public static boolean isAvailable() {
+        return EVENTS != null;
+    }
+
+    public static boolean isEvaluationEnabled() {
+        return EVENTS != null && EVENTS.isEvaluationEnabled();
+    }
+
+    public static boolean isValidationEnabled() {
+        return EVENTS != null && EVENTS.isValidationEnabled();
+    }
+
+    public static boolean isCompileEnabled() {
+        return EVENTS != null && EVENTS.isCompileEnabled();
+    }
+
+    // Started evaluation event, or null if it is not enabled
+    static EvaluationEvent beginEvaluation() {
+        EvaluationEvent ret = null;
+
+        if (isEvaluationEnabled()) {
+            ret = EVENTS.newEvaluationEvent();
+            ret.begin();
+        }
+        return ret;
+    }
+
+    static void commitEvaluation(EvaluationEvent event, long scheduleId, long accessTime, boolean isApplicable) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.set(scheduleId, accessTime, isApplicable);
+            event.commit();
+        }
+    }
+
+    // Started validation event, or null if it is not enabled
+    static ValidationEvent beginValidation() {
+        ValidationEvent ret = null;
+
+        if (isValidationEnabled()) {
+            ret = EVENTS.newValidationEvent();
+            ret.begin();
+        }
+        return ret;
+    }
+
+    static void commitValidation(ValidationEvent event, int recurrences, int failures, boolean isValid) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.set(recurrences, failures, isValid);
+            event.commit();
+        }
+    }
+
+    // Started compile event, or null if it is not enabled
+    static CompileEvent beginCompile() {
+        CompileEvent ret = null;
+
+        if (isCompileEnabled()) {
+            ret = EVENTS.newCompileEvent();
+            ret.begin();
+        }
+        return ret;
+    }
+
+    // source is the simple name of the compiling class; scheduleId is 0 for a recurrence
+    static void commitCompile(CompileEvent event, String source, long scheduleId, String schedule, int recurrences) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.set(source, scheduleId, schedule, recurrences);
+            event.commit();
+        }
+    }
+
+    private static Events loadEvents() {
+        Events ret = null;
+
+        try {
+            ret = (Events) Class.forName(EVENTS_CLASS_NAME).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException exception) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Java Flight Recorder is not available: validity schedule events are disabled", exception);
+            }
+        }
+        return ret;
+    }
+
+    // Implemented by ValidityScheduleFlightRecorderEvents; its constructor fails when Flight Recorder is not available
+    interface Events {
+        boolean isEvaluationEnabled();
+
+        boolean isValidationEnabled();
+
+        boolean isCompileEnabled();
+
+        EvaluationEvent newEvaluationEvent();
+
+        ValidationEvent newValidationEvent();
+
+        CompileEvent newCompileEvent();
+    }
+
+    // The methods of jdk.jfr.Event that callers use
+    interface Event {
+        void begin();
+
+        void end();
+
+        boolean shouldCommit();
+
+        void commit();
+    }
+
+    interface EvaluationEvent extends Event {
+        void set(long scheduleId, long accessTime, boolean isApplicable);
+
+        // Points visited by the transition search; 0 when answered from the remembered window or minute memo
+        void setSearchSteps(long searchSteps);
+    }
+
+    interface ValidationEvent extends Event {
+        void set(int recurrences, int failures, boolean isValid);
+    }
+
+    interface CompileEvent extends Event {
+        void set(String source, long scheduleId, String schedule, int recurrences);
+    }
+}
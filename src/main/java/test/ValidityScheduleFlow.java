@@ -18,18 +18,28 @@
  */
 
 package test;
-/*package org.apache.ranger.plugin.resourcematcher;*/
 
-public class ScheduledTimeRangeMatcher implements ScheduledTimeMatcher {
-    private int lowerBound;
-    private int upperBound;
+/*
+    The interfaces of java.util.concurrent.Flow (Java 9), with the same methods and contracts, for this Java 8 code base.
+    An adapter to Flow - or to Reactive Streams - only needs to forward each call.
+ */
+public final class ValidityScheduleFlow {
+    private ValidityScheduleFlow() {
+    }
 
-    public ScheduledTimeRangeMatcher(int lowerBound, int upperBound) {
-        this.lowerBound = lowerBound;
-        this.upperBound = upperBound;
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
     }
-    @Override
-    public boolean isMatch(int currentTime) {
-        return currentTime == lowerBound || currentTime == upperBound || (currentTime > lowerBound && currentTime < upperBound);
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+        void onNext(T item);
+        void onError(Throwable throwable);
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+        void cancel();
     }
 }
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+
+import javax.annotation.Nonnull;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Finds which of many validity schedules are applicable at a given time.
+
+    The id of a schedule is its position in the list given to the constructor. Each schedule's [startTime, endTime]
+    window is kept in an interval tree, laid out implicitly over the windows sorted by startTime: the node for a range
+    of positions is its middle position, and holds the greatest endTime within the range. A query visits only the
+    nodes whose range may contain a window around the given time, so its cost is O(log n + number of candidates); the
+    recurrences are evaluated only for the candidates.
+
+    A schedule with a time-zone is evaluated with its times adjusted to that zone, so its window is widened by the
+    largest possible difference between two zone offsets.
+ */
+public class ValidityScheduleIndex {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleIndex.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleIndex");
+
+    private static final String PERF_TAG_GET_ACTIVE_SCHEDULE_IDS = "ValidityScheduleIndex.getActiveScheduleIds()";
+
+    // UTC-12:00 to UTC+14:00, plus an hour of daylight saving time
+    static final long MAX_ZONE_OFFSET_DIFFERENCE_IN_MS = 27L * 60 * 60 * 1000;
+
+    private final RangerValidityScheduleEvaluator[] evaluators;
+    private final int[]  ids;        // schedule ids, sorted by window startTime
+    private final long[] startTimes; // window startTime of ids[i]
+    private final long[] endTimes;   // window endTime of ids[i]
+    private final long[] maxEndTimes;// greatest endTime in the subtree rooted at position i
+
+    public ValidityScheduleIndex(@Nonnull List<RangerValiditySchedule> validitySchedules) {
+        this(validitySchedules, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
+
+    public ValidityScheduleIndex(@Nonnull List<RangerValiditySchedule> validitySchedules, RangerValidityScheduleEvaluator.EvaluationEngine engine) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("==> ValidityScheduleIndex(count=" + validitySchedules.size() + ")");
+        }
+
+        final int count = validitySchedules.size();
+        final long[] windows = new long[2 * count];
+
+        // identical schedules share one evaluator, and so its remembered validity window
+        ValidityScheduleEvaluatorCache evaluatorCache = new ValidityScheduleEvaluatorCache(Math.max(count, 1), engine);
+
+        evaluators = new RangerValidityScheduleEvaluator[count];
+
+        for (int i = 0; i < count; i++) {
+            RangerValiditySchedule validitySchedule = validitySchedules.get(i);
+
+            evaluators[i] = evaluatorCache.getEvaluator(validitySchedule);
+
+            long startTime = 0;
+            long endTime = 0;
+
+            // same as the evaluator: both times are needed, else the window is [0, 0]
+            if (validitySchedule.getStartTime() != null && validitySchedule.getEndTime() != null) {
+                startTime = parseTime(validitySchedule.getStartTime());
+                endTime = parseTime(validitySchedule.getEndTime());
+            }
+
+            if (StringUtils.isNotBlank(validitySchedule.getTimeZone())) {
+                startTime = startTime - MAX_ZONE_OFFSET_DIFFERENCE_IN_MS;
+                endTime = endTime + MAX_ZONE_OFFSET_DIFFERENCE_IN_MS;
+            }
+            windows[2 * i] = startTime;
+            windows[2 * i + 1] = endTime;
+        }
+
+        Integer[] order = new Integer[count];
+
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> Long.compare(windows[2 * first], windows[2 * second]));
+
+        ids = new int[count];
+        startTimes = new long[count];
+        endTimes = new long[count];
+        maxEndTimes = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            ids[i] = order[i];
+            startTimes[i] = windows[2 * order[i]];
+            endTimes[i] = windows[2 * order[i] + 1];
+        }
+        computeMaxEndTime(0, count);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("<== ValidityScheduleIndex(count=" + validitySchedules.size() + ")");
+        }
+    }
+
+    public int size() {
+        return evaluators.length;
+    }
+
+    public RangerValidityScheduleEvaluator getEvaluator(int id) {
+        return evaluators[id];
+    }
+
+    /*
+    Returns ids of the schedules applicable at the given time, in ascending order
+     */
+    public int[] getActiveScheduleIds(long accessTime) {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_GET_ACTIVE_SCHEDULE_IDS);
+        }
+
+        int[] candidates = new int[Math.min(ids.length, 16)];
+        int   count = collectCandidates(0, ids.length, accessTime, candidates, 0);
+
+        if (count > candidates.length) {
+            // more candidates than fit: collect again into a large enough array
+            candidates = new int[count];
+            collectCandidates(0, ids.length, accessTime, candidates, 0);
+        }
+
+        int activeCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (evaluators[candidates[i]].isApplicable(accessTime)) {
+                candidates[activeCount++] = candidates[i];
+            }
+        }
+
+        int[] ret = Arrays.copyOf(candidates, activeCount);
+
+        Arrays.sort(ret);
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("getActiveScheduleIds(accessTime=" + accessTime + "): candidates=" + count + ", active=" + Arrays.toString(ret));
+        }
+
+        return ret;
+    }
+
+    private long computeMaxEndTime(int from, int to) {
+        long ret = Long.MIN_VALUE;
+
+        if (from < to) {
+            int mid = (from + to) >>> 1;
+
+            ret = Math.max(endTimes[mid], Math.max(computeMaxEndTime(from, mid), computeMaxEndTime(mid + 1, to)));
+            maxEndTimes[mid] = ret;
+        }
+        return ret;
+    }
+
+    // Adds ids of windows in positions [from, to) that contain accessTime; returns the count, which may exceed the array
+    private int collectCandidates(int from, int to, long accessTime, int[] candidates, int count) {
+        if (from < to) {
+            int mid = (from + to) >>> 1;
+
+            if (maxEndTimes[mid] >= accessTime) {
+                count = collectCandidates(from, mid, accessTime, candidates, count);
+
+                if (startTimes[mid] <= accessTime) {
+                    if (endTimes[mid] >= accessTime) {
+                        if (count < candidates.length) {
+                            candidates[count] = ids[mid];
+                        }
+                        count++;
+                    }
+                    count = collectCandidates(mid + 1, to, accessTime, candidates, count);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long parseTime(@Nonnull String time) {
+        long ret = 0;
+        DateFormat dateFormatter = new SimpleDateFormat(RangerValiditySchedule.VALIDITY_SCHEDULE_DATE_STRING_SPECIFICATION);
+
+        try {
+            ret = dateFormatter.parse(time).getTime();
+        } catch (ParseException exception) {
+            LOG.error("Error parsing time:[" + time + "]", exception);
+            if (ValidityScheduleMetrics.isMetricsEnabled()) {
+                ValidityScheduleMetrics.increment(ValidityScheduleMetrics.Counter.PARSE_FAILURES);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Loads a JSON array of validity schedules - in the form RangerValiditySchedule is serialized to - into evaluators,
+    one schedule at a time: each is read token by token, validated, and handed to the ScheduleHandler as an evaluator of
+    its normalized schedule, before the next one is read. So only the evaluators that the handler keeps stay in memory,
+    rather than the whole bundle as parsed objects. Unknown properties are skipped, as RangerValiditySchedule ignores them.
+
+    With a ValidityScheduleEvaluatorCache, equivalent schedules share one evaluator.
+ */
+public class ValidityScheduleJsonLoader {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleJsonLoader.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleJsonLoader");
+
+    private static final String PERF_TAG_LOAD = "ValidityScheduleJsonLoader.load()";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec[] FIELDS = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values();
+
+    public interface ScheduleHandler {
+        void onValidSchedule(int index, RangerValidityScheduleEvaluator evaluator);
+        void onInvalidSchedule(int index, List<ValidationFailureDetails> validationFailures);
+    }
+
+    private final RangerValidityScheduleEvaluator.EvaluationEngine engine;
+    private final ValidityScheduleEvaluatorCache                   evaluatorCache;
+
+    public ValidityScheduleJsonLoader() {
+        this(RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
+
+    public ValidityScheduleJsonLoader(RangerValidityScheduleEvaluator.EvaluationEngine engine) {
+        this.engine = engine;
+        this.evaluatorCache = null;
+    }
+
+    public ValidityScheduleJsonLoader(@Nonnull ValidityScheduleEvaluatorCache evaluatorCache) {
+        this.engine = null;
+        this.evaluatorCache = evaluatorCache;
+    }
+
+    // Returns the number of schedules read
+    public int load(@Nonnull InputStream in, @Nonnull ScheduleHandler handler) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(in)) {
+            return load(parser, handler);
+        }
+    }
+
+    public int load(@Nonnull Reader reader, @Nonnull ScheduleHandler handler) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(reader)) {
+            return load(parser, handler);
+        }
+    }
+
+    private int load(JsonParser parser, ScheduleHandler handler) throws IOException {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_LOAD);
+        }
+
+        int ret = 0;
+
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            RangerValiditySchedule validitySchedule = token == JsonToken.VALUE_NULL ? null : readSchedule(parser);
+
+            load(ret++, validitySchedule, handler);
+        }
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("load(): " + ret + " schedules");
+        }
+        return ret;
+    }
+
+    private void load(int index, RangerValiditySchedule validitySchedule, ScheduleHandler handler) {
+        List<ValidationFailureDetails> validationFailures = new ArrayList<>();
+        RangerValidityScheduleEvaluator evaluator = null;
+
+        try {
+            RangerValiditySchedule normalizedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(validationFailures);
+
+            if (normalizedSchedule != null) {
+                evaluator = evaluatorCache != null ? evaluatorCache.getEvaluator(normalizedSchedule) : new RangerValidityScheduleEvaluator(normalizedSchedule, engine);
+            }
+        } catch (RuntimeException exception) {
+            LOG.error("Error validating validitySchedule:[" + validitySchedule + "]", exception);
+
+            validationFailures.add(new ValidationFailureDetails(0, "validitySchedule", "", false, false, true, "validation error: " + exception));
+        }
+
+        if (evaluator != null) {
+            handler.onValidSchedule(index, evaluator);
+        } else {
+            handler.onInvalidSchedule(index, validationFailures);
+        }
+    }
+
+    private RangerValiditySchedule readSchedule(JsonParser parser) throws IOException {
+        RangerValiditySchedule ret = new RangerValiditySchedule();
+
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+
+            parser.nextToken();
+
+            switch (name) {
+                case "startTime":
+                    ret.setStartTime(readString(parser));
+                    break;
+                case "endTime":
+                    ret.setEndTime(readString(parser));
+                    break;
+                case "timeZone":
+                    ret.setTimeZone(readString(parser));
+                    break;
+                case "recurrences":
+                    if (parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+                        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            ret.getRecurrences().add(parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : readRecurrence(parser));
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private RangerValidityRecurrence readRecurrence(JsonParser parser) throws IOException {
+        RangerValidityRecurrence ret = new RangerValidityRecurrence();
+
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            switch (name) {
+                case "schedule":
+                    ret.setSchedule(readRecurrenceSchedule(parser));
+                    break;
+                case "interval":
+                    ret.setInterval(readValidityInterval(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private RangerValidityRecurrence.RecurrenceSchedule readRecurrenceSchedule(JsonParser parser) throws IOException {
+        RangerValidityRecurrence.RecurrenceSchedule ret = new RangerValidityRecurrence.RecurrenceSchedule();
+
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field = null;
+
+            parser.nextToken();
+
+            for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec candidate : FIELDS) {
+                if (candidate.name().equals(name)) {
+                    field = candidate;
+                    break;
+                }
+            }
+            if (field != null) {
+                ret.setFieldValue(field, readString(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return ret;
+    }
+
+    private RangerValidityRecurrence.ValidityInterval readValidityInterval(JsonParser parser) throws IOException {
+        int days = 0, hours = 0, minutes = 0;
+
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+
+            parser.nextToken();
+
+            switch (name) {
+                case "days":
+                    days = readInt(parser);
+                    break;
+                case "hours":
+                    hours = readInt(parser);
+                    break;
+                case "minutes":
+                    minutes = readInt(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return new RangerValidityRecurrence.ValidityInterval(days, hours, minutes, null);
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException("Expected a value for:[" + parser.getCurrentName() + "], found:[" + token + "]", parser.getCurrentLocation());
+        }
+        return parser.getText();
+    }
+
+    /*
+    Only integers, or strings holding nothing but an integer, are accepted. Anything else - "8h", 1.5, true - must fail
+    the load rather than quietly read as 0: a 0 interval makes a recurrence applicable at all times.
+     */
+    private static int readInt(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        final int ret;
+
+        if (token == JsonToken.VALUE_NULL) {
+            ret = 0;
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            ret = parser.getIntValue();
+        } else if (token == JsonToken.VALUE_STRING) {
+            String text = parser.getText().trim();
+
+            try {
+                ret = Integer.parseInt(text);
+            } catch (NumberFormatException exception) {
+                throw new JsonParseException("Expected an integer for:[" + parser.getCurrentName() + "], found:[" + text + "]", parser.getCurrentLocation(), exception);
+            }
+        } else {
+            throw new JsonParseException("Expected an integer for:[" + parser.getCurrentName() + "], found:[" + token + "]", parser.getCurrentLocation());
+        }
+
+        return ret;
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws IOException {
+        if (token != expected) {
+            throw new JsonParseException("Expected:[" + expected + "], found:[" + token + "]", parser.getCurrentLocation());
+        }
+    }
+}
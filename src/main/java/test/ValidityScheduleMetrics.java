@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Process-wide counters and latency histograms of validity-schedule evaluation, cheap enough to leave on.
+    Counters are LongAdders and histograms are LatencyHistograms, so recording takes no lock and allocates nothing.
+    Callers check isEnabled() before recording - and before reading the clock for a latency - so that nothing is
+    recorded, or measured, while metrics are disabled. Metrics are disabled unless the system property
+    ENABLED_PROPERTY is true, or setEnabled(true) is called.
+
+    snapshot() returns the current values; registerMBean() exposes them over JMX, as ValidityScheduleMetricsMXBean.
+ */
+public final class ValidityScheduleMetrics implements ValidityScheduleMetricsMXBean {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleMetrics.class);
+
+    public static final String ENABLED_PROPERTY = "test.validity.schedule.metrics.enabled";
+    public static final String OBJECT_NAME      = "test:type=ValidityScheduleMetrics";
+
+    public enum Counter {
+        EVALUATIONS,             // calls to RangerValidityScheduleEvaluator.isApplicable(long)
+        WINDOW_HITS,             // of those, answered from the remembered validity window
+        WINDOW_MISSES,           // of those, that had to evaluate the schedule
+        MINUTE_MEMO_HITS,        // of those, answered from the per-minute memo, before the window is consulted
+        TRANSITION_SEARCH_STEPS, // points visited by nextTransition() while looking for the next flip
+        MONTH_BACK_STEPS,        // months skipped back to find a long enough month for the scheduled day-of-month
+        PARSE_FAILURES,          // startTime/endTime strings that failed to parse
+    }
+
+    public enum Latency {
+        EVALUATION,         // RangerValidityScheduleEvaluator.evaluate()
+        TRANSITION_SEARCH,  // RangerValidityScheduleEvaluator.nextTransition()
+    }
+
+    private static final ValidityScheduleMetrics INSTANCE = new ValidityScheduleMetrics();
+
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private final LongAdder[]        counters  = new LongAdder[Counter.values().length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Latency.values().length];
+
+    private ValidityScheduleMetrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public static ValidityScheduleMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isMetricsEnabled() {
+        return enabled;
+    }
+
+    public static void increment(Counter counter) {
+        INSTANCE.counters[counter.ordinal()].increment();
+    }
+
+    public static void add(Counter counter, long value) {
+        INSTANCE.counters[counter.ordinal()].add(value);
+    }
+
+    public static void recordLatency(Latency latency, long nanos) {
+        INSTANCE.latencies[latency.ordinal()].record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        Map<Counter, Long> counterValues = new EnumMap<>(Counter.class);
+        Map<Latency, LatencyHistogram.Snapshot> latencyValues = new EnumMap<>(Latency.class);
+
+        for (Counter counter : Counter.values()) {
+            counterValues.put(counter, counters[counter.ordinal()].sum());
+        }
+        for (Latency latency : Latency.values()) {
+            latencyValues.put(latency, latencies[latency.ordinal()].snapshot());
+        }
+        return new Snapshot(counterValues, latencyValues);
+    }
+
+    public void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException exception) {
+            LOG.error("Error registering MBean:[" + OBJECT_NAME + "]", exception);
+        }
+    }
+
+    public void unregisterMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException exception) {
+            LOG.error("Error unregistering MBean:[" + OBJECT_NAME + "]", exception);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        ValidityScheduleMetrics.enabled = enabled;
+    }
+
+    @Override public long getEvaluations() { return counters[Counter.EVALUATIONS.ordinal()].sum(); }
+    @Override public long getWindowHits() { return counters[Counter.WINDOW_HITS.ordinal()].sum(); }
+    @Override public long getWindowMisses() { return counters[Counter.WINDOW_MISSES.ordinal()].sum(); }
+    @Override public long getMinuteMemoHits() { return counters[Counter.MINUTE_MEMO_HITS.ordinal()].sum(); }
+    @Override public long getTransitionSearchSteps() { return counters[Counter.TRANSITION_SEARCH_STEPS.ordinal()].sum(); }
+    @Override public long getMonthBackSteps() { return counters[Counter.MONTH_BACK_STEPS.ordinal()].sum(); }
+    @Override public long getParseFailures() { return counters[Counter.PARSE_FAILURES.ordinal()].sum(); }
+
+    @Override public long getEvaluationCount() { return getLatency(Latency.EVALUATION).getCount(); }
+    @Override public double getEvaluationLatencyMean() { return getLatency(Latency.EVALUATION).getMean(); }
+    @Override public long getEvaluationLatencyP50() { return getLatency(Latency.EVALUATION).getPercentile(50); }
+    @Override public long getEvaluationLatencyP99() { return getLatency(Latency.EVALUATION).getPercentile(99); }
+    @Override public long getEvaluationLatencyMax() { return getLatency(Latency.EVALUATION).getMax(); }
+
+    @Override public long getTransitionSearchCount() { return getLatency(Latency.TRANSITION_SEARCH).getCount(); }
+    @Override public double getTransitionSearchLatencyMean() { return getLatency(Latency.TRANSITION_SEARCH).getMean(); }
+    @Override public long getTransitionSearchLatencyP50() { return getLatency(Latency.TRANSITION_SEARCH).getPercentile(50); }
+    @Override public long getTransitionSearchLatencyP99() { return getLatency(Latency.TRANSITION_SEARCH).getPercentile(99); }
+    @Override public long getTransitionSearchLatencyMax() { return getLatency(Latency.TRANSITION_SEARCH).getMax(); }
+
+    // Values recorded while resetting may be kept or lost
+    @Override
+    public void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+    }
+
+    private LatencyHistogram.Snapshot getLatency(Latency latency) {
+        return latencies[latency.ordinal()].snapshot();
+    }
+
+    public static final class Snapshot {
+        private final Map<Counter, Long>                      counters;
+        private final Map<Latency, LatencyHistogram.Snapshot> latencies;
+
+        Snapshot(Map<Counter, Long> counters, Map<Latency, LatencyHistogram.Snapshot> latencies) {
+            this.counters = counters;
+            this.latencies = latencies;
+        }
+
+        public long getCount(Counter counter) {
+            return counters.get(counter);
+        }
+
+        public LatencyHistogram.Snapshot getLatency(Latency latency) {
+            return latencies.get(latency);
+        }
+
+        @Override
+        public String toString() {
+            return "{counters=" + counters + ", latencies=" + latencies + "}";
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+/*
+    JMX view of ValidityScheduleMetrics, registered as ValidityScheduleMetrics.OBJECT_NAME. Latencies are in nanoseconds.
+ */
+public interface ValidityScheduleMetricsMXBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+
+    long getEvaluations();
+    long getWindowHits();
+    long getWindowMisses();
+    long getMinuteMemoHits();
+    long getTransitionSearchSteps();
+    long getMonthBackSteps();
+    long getParseFailures();
+
+    long getEvaluationCount();
+    double getEvaluationLatencyMean();
+    long getEvaluationLatencyP50();
+    long getEvaluationLatencyP99();
+    long getEvaluationLatencyMax();
+
+    long getTransitionSearchCount();
+    double getTransitionSearchLatencyMean();
+    long getTransitionSearchLatencyP50();
+    long getTransitionSearchLatencyP99();
+    long getTransitionSearchLatencyMax();
+
+    void reset();
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Evaluators by policy id, as a series of immutable, versioned snapshots. An update is a diff - evaluators to add or
+    replace, and policy ids to remove - applied to a copy of the current snapshot, which is then published with a
+    compare-and-set; concurrent updates are retried on the snapshot that won, so none is lost. Readers take no lock:
+    getSnapshot() returns the current snapshot, which a request can hold on to, so that all its evaluations see the same
+    version even if policies are refreshed meanwhile.
+
+    A policy id that is not in a snapshot is not applicable, so that a mistyped id, or one removed by a concurrent
+    refresh, denies rather than grants; a policy without a validity schedule is registered with ALWAYS_APPLICABLE.
+ */
+public class ValidityScheduleRegistry {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleRegistry.class);
+
+    private static final long EARLIEST_TIME = -62135596800000L; // 0001-01-01T00:00:00Z
+    private static final long LATEST_TIME   = 253402300800000L; // 10000-01-01T00:00:00Z
+
+    // Evaluator of a policy without a validity schedule: applicable at any time
+    public static final RangerValidityScheduleEvaluator ALWAYS_APPLICABLE = new RangerValidityScheduleEvaluator(new Date(EARLIEST_TIME), new Date(LATEST_TIME), null,
+            Collections.<RangerValidityScheduleEvaluator.RangerRecurrenceEvaluator>emptyList(), RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(0, Collections.<Long, RangerValidityScheduleEvaluator>emptyMap()));
+
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public long getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    // Evaluator of policyId in the current snapshot, or null if there is none
+    public RangerValidityScheduleEvaluator getEvaluator(long policyId) {
+        return snapshot.get().getEvaluator(policyId);
+    }
+
+    public Snapshot put(long policyId, @Nonnull RangerValidityScheduleEvaluator evaluator) {
+        return update(new Update().put(policyId, evaluator));
+    }
+
+    public Snapshot remove(long policyId) {
+        return update(new Update().remove(policyId));
+    }
+
+    // Applies update to the current snapshot, and returns the snapshot published with it
+    public Snapshot update(@Nonnull Update update) {
+        Snapshot current;
+        Snapshot updated;
+
+        do {
+            current = snapshot.get();
+
+            Map<Long, RangerValidityScheduleEvaluator> evaluators = new HashMap<>(current.evaluators);
+
+            for (Map.Entry<Long, RangerValidityScheduleEvaluator> change : update.changes.entrySet()) {
+                if (change.getValue() != null) {
+                    evaluators.put(change.getKey(), change.getValue());
+                } else {
+                    evaluators.remove(change.getKey());
+                }
+            }
+            updated = new Snapshot(current.version + 1, evaluators);
+        } while (!snapshot.compareAndSet(current, updated));
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("update(changes=" + update.changes.size() + "): version=" + updated.version + ", size=" + updated.size());
+        }
+        return updated;
+    }
+
+    /*
+    Diff to apply to a snapshot: the last change made for a policy id is the one applied. Not thread-safe; an update
+    should not be changed while it is being applied.
+     */
+    public static class Update {
+        private final Map<Long, RangerValidityScheduleEvaluator> changes = new LinkedHashMap<>(); // null value: remove
+
+        public Update put(long policyId, @Nonnull RangerValidityScheduleEvaluator evaluator) {
+            changes.put(policyId, evaluator);
+
+            return this;
+        }
+
+        public Update remove(long policyId) {
+            changes.put(policyId, null);
+
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+    }
+
+    public static final class Snapshot {
+        private final long                                       version;
+        private final Map<Long, RangerValidityScheduleEvaluator> evaluators;
+
+        Snapshot(long version, Map<Long, RangerValidityScheduleEvaluator> evaluators) {
+            this.version = version;
+            this.evaluators = Collections.unmodifiableMap(evaluators);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int size() {
+            return evaluators.size();
+        }
+
+        public Set<Long> getPolicyIds() {
+            return evaluators.keySet();
+        }
+
+        // Evaluator of policyId, or null if there is none
+        public RangerValidityScheduleEvaluator getEvaluator(long policyId) {
+            return evaluators.get(policyId);
+        }
+
+        // A policy id not in this snapshot is not applicable
+        public boolean isApplicable(long policyId, long accessTime) {
+            RangerValidityScheduleEvaluator evaluator = evaluators.get(policyId);
+
+            return evaluator != null && evaluator.isApplicable(accessTime);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot={version=" + version + ", size=" + evaluators.size() + "}";
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+    Compiled validity schedules in a versioned binary file, that is memory-mapped read-only when opened - so processes
+    that open the same file share its pages, and nothing is parsed: evaluators are built from the fixed-width records,
+    with absolute reads of the mapped buffer, the first time each schedule is asked for.
+
+    Layout, big-endian:
+      header        magic, version, zone count, schedule count, recurrence count, offsets of the three tables below
+      schedules     per schedule: start and end epoch-minute (NO_TIME when not set), zone index (NO_ZONE when none),
+                    index of its first recurrence and number of recurrences
+      recurrences   per recurrence: interval in minutes, bits of the specified fields by ScheduleFieldSpec ordinal, and
+                    per field the ScheduledTimeMask - minimum, low word and high word
+      zones         per zone id: length and UTF-8 bytes
+
+    write() replaces the file atomically, so a process that has the previous file mapped keeps a consistent view of it.
+ */
+public final class ValidityScheduleSnapshot {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleSnapshot.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleSnapshot");
+
+    private static final String PERF_TAG_WRITE = "ValidityScheduleSnapshot.write()";
+    private static final String PERF_TAG_OPEN  = "ValidityScheduleSnapshot.open()";
+
+    static final int MAGIC   = 0x52565353; // "RVSS"
+    static final int VERSION = 1;
+
+    static final long NO_TIME = Long.MIN_VALUE;
+    static final int  NO_ZONE = -1;
+
+    private static final RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec[] FIELDS = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values();
+
+    private static final int HEADER_SIZE          = 32;
+    private static final int SCHEDULE_RECORD_SIZE = 32;
+    private static final int MASK_SIZE            = 4 + 8 + 8;
+    private static final int RECURRENCE_RECORD_SIZE = 4 + 4 + FIELDS.length * MASK_SIZE;
+
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_DAY    = 24;
+
+    private final ByteBuffer                                          buffer;
+    private final String[]                                            zoneIds;
+    private final int                                                 scheduleCount;
+    private final int                                                 scheduleTableOffset;
+    private final int                                                 recurrenceTableOffset;
+    private final RangerValidityScheduleEvaluator.EvaluationEngine    engine;
+    private final AtomicReferenceArray<RangerValidityScheduleEvaluator> evaluators;
+
+    private ValidityScheduleSnapshot(ByteBuffer buffer, RangerValidityScheduleEvaluator.EvaluationEngine engine) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a validity-schedule snapshot");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("unsupported validity-schedule snapshot version:[" + buffer.getShort(4) + "], expected:[" + VERSION + "]");
+        }
+
+        int zoneCount = buffer.getInt(8);
+        int recurrenceCount = buffer.getInt(16);
+        int zoneTableOffset = buffer.getInt(28);
+
+        this.buffer = buffer;
+        this.scheduleCount = buffer.getInt(12);
+        this.scheduleTableOffset = buffer.getInt(20);
+        this.recurrenceTableOffset = buffer.getInt(24);
+        this.engine = engine;
+
+        if (scheduleCount < 0 || recurrenceCount < 0 || zoneCount < 0
+                || scheduleTableOffset < HEADER_SIZE || (long) scheduleTableOffset + (long) scheduleCount * SCHEDULE_RECORD_SIZE > recurrenceTableOffset
+                || (long) recurrenceTableOffset + (long) recurrenceCount * RECURRENCE_RECORD_SIZE > zoneTableOffset
+                || zoneTableOffset > buffer.capacity()) {
+            throw new IOException("truncated or corrupt validity-schedule snapshot");
+        }
+
+        this.zoneIds = new String[zoneCount];
+
+        try {
+            for (int i = 0, offset = zoneTableOffset; i < zoneCount; i++) {
+                byte[] bytes = new byte[buffer.getShort(offset) & 0xFFFF];
+                ByteBuffer zoneId = buffer.duplicate();
+
+                zoneId.position(offset + 2);
+                zoneId.get(bytes);
+                zoneIds[i] = new String(bytes, StandardCharsets.UTF_8);
+                offset += 2 + bytes.length;
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException exception) {
+            throw new IOException("truncated or corrupt validity-schedule snapshot", exception);
+        }
+
+        // Every schedule record must reference a zone and a run of recurrences that exist, so that a corrupt snapshot
+        // fails here rather than in isApplicable()
+        for (int i = 0, offset = scheduleTableOffset; i < scheduleCount; i++, offset += SCHEDULE_RECORD_SIZE) {
+            int zoneIndex = buffer.getInt(offset + 16);
+            int firstRecurrence = buffer.getInt(offset + 20);
+            int scheduleRecurrenceCount = buffer.getInt(offset + 24);
+
+            if ((zoneIndex != NO_ZONE && (zoneIndex < 0 || zoneIndex >= zoneCount))
+                    || firstRecurrence < 0 || scheduleRecurrenceCount < 0 || (long) firstRecurrence + scheduleRecurrenceCount > recurrenceCount) {
+                throw new IOException("corrupt validity-schedule snapshot: schedule:[" + i + "] has zone index:[" + zoneIndex + "], recurrences:["
+                        + firstRecurrence + ", " + scheduleRecurrenceCount + "], in a snapshot of " + zoneCount + " zones and " + recurrenceCount + " recurrences");
+            }
+        }
+
+        this.evaluators = new AtomicReferenceArray<>(scheduleCount);
+    }
+
+    /*
+    Writes evaluators, in the given order, to file. An evaluator is written as compiled - its masks, not the schedule
+    strings it was built from - and its start and end times as instants, as parsed in the default time-zone of this
+    process. Throws IllegalArgumentException for a recurrence whose interval does not have hours below 24 and minutes
+    below 60, as the validator requires, since the interval is stored in minutes.
+     */
+    public static void write(@Nonnull List<RangerValidityScheduleEvaluator> evaluators, @Nonnull Path file) throws IOException {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_WRITE);
+        }
+
+        Map<String, Integer> zoneIndexes = new LinkedHashMap<>();
+        List<byte[]> zoneIds = new ArrayList<>();
+        int recurrenceCount = 0;
+        int zoneTableSize = 0;
+
+        for (RangerValidityScheduleEvaluator evaluator : evaluators) {
+            String timeZone = evaluator.getTimeZone();
+
+            if (timeZone != null && !zoneIndexes.containsKey(timeZone)) {
+                byte[] bytes = timeZone.getBytes(StandardCharsets.UTF_8);
+
+                zoneIndexes.put(timeZone, zoneIds.size());
+                zoneIds.add(bytes);
+                zoneTableSize += 2 + bytes.length;
+            }
+            recurrenceCount += evaluator.recurrenceEvaluators.size();
+        }
+
+        int scheduleTableOffset = HEADER_SIZE;
+        int recurrenceTableOffset = scheduleTableOffset + evaluators.size() * SCHEDULE_RECORD_SIZE;
+        int zoneTableOffset = recurrenceTableOffset + recurrenceCount * RECURRENCE_RECORD_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(zoneTableOffset + zoneTableSize);
+
+        out.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0);
+        out.putInt(zoneIds.size()).putInt(evaluators.size()).putInt(recurrenceCount);
+        out.putInt(scheduleTableOffset).putInt(recurrenceTableOffset).putInt(zoneTableOffset);
+
+        int firstRecurrence = 0;
+
+        for (RangerValidityScheduleEvaluator evaluator : evaluators) {
+            Integer zoneIndex = evaluator.getTimeZone() != null ? zoneIndexes.get(evaluator.getTimeZone()) : null;
+
+            out.putLong(toEpochMinute(evaluator.getStartTime()));
+            out.putLong(toEpochMinute(evaluator.getEndTime()));
+            out.putInt(zoneIndex != null ? zoneIndex : NO_ZONE);
+            out.putInt(firstRecurrence);
+            out.putInt(evaluator.recurrenceEvaluators.size());
+            out.putInt(0);
+
+            firstRecurrence += evaluator.recurrenceEvaluators.size();
+        }
+
+        for (RangerValidityScheduleEvaluator evaluator : evaluators) {
+            for (RangerValidityScheduleEvaluator.RangerRecurrenceEvaluator recurrenceEvaluator : evaluator.recurrenceEvaluators) {
+                int intervalInMinutes = recurrenceEvaluator.getIntervalInMinutes();
+
+                if (intervalInMinutes > 0 && !isMinutesExact(recurrenceEvaluator.getInterval())) {
+                    throw new IllegalArgumentException("interval can not be stored in minutes:[" + recurrenceEvaluator.getInterval() + "]");
+                }
+
+                out.putInt(intervalInMinutes);
+                out.putInt(recurrenceEvaluator.getSpecifiedFields());
+
+                for (RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field : FIELDS) {
+                    ScheduledTimeMask mask = recurrenceEvaluator.getMask(field);
+
+                    out.putInt(mask.getMinimum()).putLong(mask.getLow()).putLong(mask.getHigh());
+                }
+            }
+        }
+
+        for (byte[] zoneId : zoneIds) {
+            out.putShort((short) zoneId.length).put(zoneId);
+        }
+        out.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("write(file=" + file + "): " + evaluators.size() + " schedules, " + recurrenceCount + " recurrences, " + zoneIds.size() + " zones");
+        }
+    }
+
+    public static ValidityScheduleSnapshot open(@Nonnull Path file) throws IOException {
+        return open(file, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
+
+    // The mapping stays valid, and the snapshot usable, after the file is replaced or deleted
+    public static ValidityScheduleSnapshot open(@Nonnull Path file, RangerValidityScheduleEvaluator.EvaluationEngine engine) throws IOException {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_OPEN);
+        }
+
+        final MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ValidityScheduleSnapshot ret = new ValidityScheduleSnapshot(buffer, engine);
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("open(file=" + file + "): " + ret.size() + " schedules");
+        }
+        return ret;
+    }
+
+    public int size() {
+        return scheduleCount;
+    }
+
+    public boolean isApplicable(int index, long accessTime) {
+        return getEvaluator(index).isApplicable(accessTime);
+    }
+
+    // Evaluator of schedule index, built from its records on first use and shared after that
+    public RangerValidityScheduleEvaluator getEvaluator(int index) {
+        RangerValidityScheduleEvaluator ret = evaluators.get(index);
+
+        if (ret == null) {
+            ret = readEvaluator(index);
+
+            if (!evaluators.compareAndSet(index, null, ret)) {
+                ret = evaluators.get(index);
+            }
+        }
+        return ret;
+    }
+
+    private RangerValidityScheduleEvaluator readEvaluator(int index) {
+        int offset = scheduleTableOffset + index * SCHEDULE_RECORD_SIZE;
+        long startMinute = buffer.getLong(offset);
+        long endMinute = buffer.getLong(offset + 8);
+        int zoneIndex = buffer.getInt(offset + 16);
+        int firstRecurrence = buffer.getInt(offset + 20);
+        int recurrenceCount = buffer.getInt(offset + 24);
+
+        List<RangerValidityScheduleEvaluator.RangerRecurrenceEvaluator> recurrenceEvaluators = new ArrayList<>(recurrenceCount);
+
+        for (int i = 0; i < recurrenceCount; i++) {
+            recurrenceEvaluators.add(readRecurrenceEvaluator(recurrenceTableOffset + (firstRecurrence + i) * RECURRENCE_RECORD_SIZE));
+        }
+
+        return new RangerValidityScheduleEvaluator(toDate(startMinute), toDate(endMinute), zoneIndex == NO_ZONE ? null : zoneIds[zoneIndex], recurrenceEvaluators, engine);
+    }
+
+    private RangerValidityScheduleEvaluator.RangerRecurrenceEvaluator readRecurrenceEvaluator(int offset) {
+        int intervalInMinutes = buffer.getInt(offset);
+        int specifiedFields = buffer.getInt(offset + 4);
+        ScheduledTimeMask[] masks = null;
+
+        if (intervalInMinutes > 0) {
+            masks = new ScheduledTimeMask[FIELDS.length];
+
+            for (int i = 0, maskOffset = offset + 8; i < FIELDS.length; i++, maskOffset += MASK_SIZE) {
+                masks[i] = new ScheduledTimeMask(buffer.getInt(maskOffset), buffer.getLong(maskOffset + 4), buffer.getLong(maskOffset + 12));
+            }
+        }
+
+        RangerValidityRecurrence.ValidityInterval interval = new RangerValidityRecurrence.ValidityInterval(intervalInMinutes / (HOURS_PER_DAY * MINUTES_PER_HOUR),
+                intervalInMinutes / MINUTES_PER_HOUR % HOURS_PER_DAY, intervalInMinutes % MINUTES_PER_HOUR, null);
+
+        return new RangerValidityScheduleEvaluator.RangerRecurrenceEvaluator(interval, masks, specifiedFields, engine);
+    }
+
+    private static boolean isMinutesExact(RangerValidityRecurrence.ValidityInterval interval) {
+        return interval.getDays() >= 0 && interval.getHours() >= 0 && interval.getHours() < HOURS_PER_DAY
+                && interval.getMinutes() >= 0 && interval.getMinutes() < MINUTES_PER_HOUR;
+    }
+
+    private static long toEpochMinute(Date time) {
+        return time == null ? NO_TIME : Math.floorDiv(time.getTime(), EpochCalendar.MILLIS_PER_MINUTE);
+    }
+
+    private static Date toDate(long epochMinute) {
+        return epochMinute == NO_TIME ? null : new Date(epochMinute * EpochCalendar.MILLIS_PER_MINUTE);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Publishes the activation and deactivation of registered schedules, as found by a ValidityScheduleTimerWheel, to any
+    number of subscribers, each at its own pace. Every subscription keeps the changes not yet delivered to it by
+    schedule id, so a slow subscriber is sent only the latest change of each schedule - the undelivered changes of a
+    subscription never outnumber the registered schedules. Changes are delivered in the order they were last updated,
+    when the subscriber has requested them, one at a time per subscriber, on the delivery executor.
+
+    Subscribers see the changes that happen after they subscribe. close() completes every subscription, once its
+    undelivered changes are delivered; one made after close() is completed right away. A subscription whose delivery the
+    executor rejects is terminated with onError().
+ */
+public class ValidityScheduleStatePublisher implements ValidityScheduleFlow.Publisher<ValidityScheduleStatePublisher.StateChange> {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleStatePublisher.class);
+
+    private final Executor                     executor;
+    private final ValidityScheduleTimerWheel   timerWheel;
+    private final List<ScheduleSubscription>   subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean                   isClosed;
+
+    public ValidityScheduleStatePublisher(@Nonnull Executor executor) {
+        this(executor, ValidityScheduleTimerWheel.DEFAULT_TICK_MS, ValidityScheduleTimerWheel.DEFAULT_WHEEL_SIZE);
+    }
+
+    public ValidityScheduleStatePublisher(@Nonnull Executor executor, long tickMs, int wheelSize) {
+        this.executor = executor;
+        this.timerWheel = new ValidityScheduleTimerWheel(this::publish, Runnable::run, tickMs, wheelSize);
+    }
+
+    public boolean register(long scheduleId, @Nonnull RangerValiditySchedule normalizedSchedule) {
+        return register(scheduleId, new RangerValidityScheduleEvaluator(normalizedSchedule), System.currentTimeMillis());
+    }
+
+    // Returns the applicability of the schedule at now
+    public boolean register(long scheduleId, @Nonnull RangerValidityScheduleEvaluator evaluator, long now) {
+        return timerWheel.register(scheduleId, evaluator, now);
+    }
+
+    public boolean unregister(long scheduleId) {
+        return timerWheel.unregister(scheduleId);
+    }
+
+    // Publishes the changes up to now; see ValidityScheduleTimerWheel.advance()
+    public int advance(long now) {
+        return timerWheel.advance(now);
+    }
+
+    // Publishes changes as they happen, on the timer wheel's thread
+    public void start() {
+        timerWheel.start();
+    }
+
+    public void close() {
+        timerWheel.stop();
+        isClosed = true;
+
+        for (ScheduleSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void subscribe(ValidityScheduleFlow.Subscriber<? super StateChange> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        ScheduleSubscription subscription = new ScheduleSubscription(subscriber);
+
+        subscriber.onSubscribe(subscription);
+        subscriptions.add(subscription);
+
+        // close() sets isClosed before it completes the subscriptions it finds: one added after that is completed here
+        if (isClosed) {
+            subscriptions.remove(subscription);
+            subscription.complete();
+        } else if (subscription.isTerminated()) {
+            subscriptions.remove(subscription); // cancelled, or rejected by the executor, from onSubscribe()
+        }
+    }
+
+    private void publish(long scheduleId, boolean isApplicable, long time) {
+        StateChange change = new StateChange(scheduleId, isApplicable, time);
+
+        for (ScheduleSubscription subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    public static final class StateChange {
+        private final long    scheduleId;
+        private final boolean isApplicable;
+        private final long    time;
+
+        StateChange(long scheduleId, boolean isApplicable, long time) {
+            this.scheduleId = scheduleId;
+            this.isApplicable = isApplicable;
+            this.time = time;
+        }
+
+        public long getScheduleId() { return scheduleId; }
+
+        // Applicability from getTime() on
+        public boolean isApplicable() { return isApplicable; }
+
+        public long getTime() { return time; }
+
+        @Override
+        public String toString() {
+            return "StateChange={scheduleId=" + scheduleId + ", isApplicable=" + isApplicable + ", time=" + time + "}";
+        }
+    }
+
+    private final class ScheduleSubscription implements ValidityScheduleFlow.Subscription {
+        private final ValidityScheduleFlow.Subscriber<? super StateChange> subscriber;
+        private final Map<Long, StateChange>                                pending = new LinkedHashMap<>(); // guarded by this
+        private final AtomicInteger                                         drains = new AtomicInteger();
+        private long                                                        demand;                          // guarded by this
+        private boolean                                                     isCompleted;                     // guarded by this
+        private Throwable                                                    error;                           // guarded by this
+        private boolean                                                     isTerminated;                    // guarded by this
+
+        ScheduleSubscription(ValidityScheduleFlow.Subscriber<? super StateChange> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request:[" + n + "]");
+                    pending.clear();
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                isTerminated = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        void offer(StateChange change) {
+            synchronized (this) {
+                if (isTerminated || isCompleted) {
+                    return;
+                }
+                pending.remove(change.getScheduleId()); // coalesced with an undelivered change, if any; now the latest
+                pending.put(change.getScheduleId(), change);
+            }
+            drain();
+        }
+
+        synchronized boolean isTerminated() {
+            return isTerminated;
+        }
+
+        void complete() {
+            synchronized (this) {
+                isCompleted = true;
+            }
+            drain();
+        }
+
+        // Delivers on the executor, from one drain at a time; drain() calls made meanwhile are picked up by that one
+        private void drain() {
+            if (drains.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::deliver);
+                } catch (RejectedExecutionException exception) {
+                    reject(exception);
+                }
+            }
+        }
+
+        // The executor refused to deliver: nothing would ever be, so the subscription is terminated with the rejection
+        private void reject(RejectedExecutionException exception) {
+            final boolean isTerminating;
+
+            synchronized (this) {
+                isTerminating = !isTerminated;
+                isTerminated = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+
+            try {
+                if (isTerminating) {
+                    LOG.error("Delivery executor rejected a drain, terminating subscription", exception);
+
+                    subscriber.onError(exception);
+                }
+            } finally {
+                drains.set(0);
+            }
+        }
+
+        private void deliver() {
+            for (int missed = 1; missed != 0; missed = drains.addAndGet(-missed)) {
+                while (true) {
+                    StateChange next = null;
+                    Throwable terminalError = null;
+                    boolean isComplete = false;
+
+                    synchronized (this) {
+                        if (isTerminated) {
+                            break;
+                        }
+                        if (error != null) {
+                            terminalError = error;
+                            isTerminated = true;
+                        } else if (demand > 0 && !pending.isEmpty()) {
+                            Iterator<StateChange> iterator = pending.values().iterator();
+
+                            next = iterator.next();
+                            iterator.remove();
+                            demand--;
+                        } else if (isCompleted && pending.isEmpty()) {
+                            isComplete = true;
+                            isTerminated = true;
+                        } else {
+                            break;
+                        }
+                    }
+
+                    if (next != null) {
+                        try {
+                            subscriber.onNext(next);
+                        } catch (RuntimeException exception) {
+                            LOG.error("Error delivering:[" + next + "], cancelling subscription", exception);
+
+                            cancel();
+                        }
+                    } else {
+                        subscriptions.remove(this);
+
+                        if (terminalError != null) {
+                            subscriber.onError(terminalError);
+                        } else if (isComplete) {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Applicability of one schedule, materialized over a horizon: the [start, end) intervals in which the schedule is
+    applicable, found with RangerValidityScheduleEvaluator.nextTransition(), kept as a sorted array of their bounds. An
+    access time within the horizon is looked up with one binary search, without any calendar math; times outside of it
+    are passed to the evaluator. As with nextTransition(), results are precise to the minute.
+
+    extend() recomputes the timeline from a given time; startExtending() has a shared background thread do that for the
+    current time, whenever less than half of the horizon is left. The timeline is replaced, never modified, so lookups
+    take no lock.
+ */
+public final class ValidityScheduleTimeline {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleTimeline.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleTimeline");
+
+    private static final String PERF_TAG_EXTEND = "ValidityScheduleTimeline.extend()";
+
+    public static final long DEFAULT_HORIZON_MS = 7 * EpochCalendar.MILLIS_PER_DAY;
+
+    private final RangerValidityScheduleEvaluator evaluator;
+    private final long                            horizon;
+
+    private volatile Segment                      segment;
+    private ScheduledFuture<?>                    extension;
+
+    public ValidityScheduleTimeline(@Nonnull RangerValidityScheduleEvaluator evaluator) {
+        this(evaluator, DEFAULT_HORIZON_MS);
+    }
+
+    public ValidityScheduleTimeline(@Nonnull RangerValidityScheduleEvaluator evaluator, long horizon) {
+        if (horizon < EpochCalendar.MILLIS_PER_MINUTE) {
+            throw new IllegalArgumentException("horizon must be at least a minute:[" + horizon + "]");
+        }
+        this.evaluator = evaluator;
+        this.horizon = horizon;
+    }
+
+    public RangerValidityScheduleEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public long getHorizon() {
+        return horizon;
+    }
+
+    // Start of the materialized timeline, or Long.MAX_VALUE if it has not been computed yet
+    public long getFrom() {
+        Segment segment = this.segment;
+
+        return segment != null ? segment.from : Long.MAX_VALUE;
+    }
+
+    // End of the materialized timeline, or Long.MIN_VALUE if it has not been computed yet
+    public long getTo() {
+        Segment segment = this.segment;
+
+        return segment != null ? segment.to : Long.MIN_VALUE;
+    }
+
+    public boolean isApplicable(long localAccessTime) {
+        Segment segment = this.segment;
+
+        if (segment != null && localAccessTime >= segment.from && localAccessTime < segment.to) {
+            return segment.isApplicable(localAccessTime);
+        }
+        return evaluator.isApplicable(localAccessTime);
+    }
+
+    // Materializes the timeline over [from, from + horizon), replacing the current one
+    public void extend(long from) {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_EXTEND);
+        }
+
+        long[] bounds = getApplicableIntervals(evaluator, from, from + horizon);
+
+        segment = new Segment(from, from + horizon, bounds);
+
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("extend(from=" + from + "): " + bounds.length / 2 + " intervals");
+        }
+    }
+
+    // Start and end of each interval within [from, to) in which the schedule is applicable, in ascending order
+    static long[] getApplicableIntervals(RangerValidityScheduleEvaluator evaluator, long from, long to) {
+        long[] ret = new long[8];
+        int count = 0;
+
+        for (long time = from; time < to; ) {
+            RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(time);
+            long end = Math.min(transition.getTime(), to);
+
+            if (transition.isApplicable()) {
+                if (count > 0 && ret[count - 1] == time) {
+                    ret[count - 1] = end; // no flip at time - the search stopped at its own horizon
+                } else {
+                    if (count == ret.length) {
+                        ret = Arrays.copyOf(ret, count * 2);
+                    }
+                    ret[count++] = time;
+                    ret[count++] = end;
+                }
+            }
+            time = end;
+        }
+        return Arrays.copyOf(ret, count);
+    }
+
+    // Keeps the timeline ahead of the current time on a shared daemon thread, until stopExtending() is called
+    public synchronized void startExtending() {
+        if (extension == null) {
+            long period = Math.max(horizon / 4, EpochCalendar.MILLIS_PER_SECOND);
+
+            extension = ExtenderHolder.EXTENDER.scheduleWithFixedDelay(this::extendIfNeeded, 0, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stopExtending() {
+        if (extension != null) {
+            extension.cancel(false);
+            extension = null;
+        }
+    }
+
+    private void extendIfNeeded() {
+        long now = System.currentTimeMillis();
+
+        try {
+            if (getTo() - now < horizon / 2 || getFrom() > now) {
+                extend(now);
+            }
+        } catch (RuntimeException exception) {
+            LOG.error("Error extending timeline of evaluator:[" + evaluator + "]", exception);
+        }
+    }
+
+    private static final class Segment {
+        final long   from;
+        final long   to;
+        final long[] bounds; // start and end of each applicable interval, in ascending order
+
+        Segment(long from, long to, long[] bounds) {
+            this.from = from;
+            this.to = to;
+            this.bounds = bounds;
+        }
+
+        boolean isApplicable(long time) {
+            int index = Arrays.binarySearch(bounds, time);
+
+            // at a bound: applicable if it is a start; between bounds: applicable if after a start
+            return index >= 0 ? (index & 1) == 0 : ((-index - 1) & 1) == 1;
+        }
+    }
+
+    private static final class ExtenderHolder {
+        static final ScheduledExecutorService EXTENDER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ValidityScheduleTimeline-extender");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+    Applicability timelines of many schedules, kept off the heap - in direct ByteBuffers, or in a memory-mapped file -
+    so that the evaluators they were computed from need not be kept. Schedules are identified by ids 0 to capacity - 1;
+    each has a fixed-width slot holding the start and end of its timeline and the bounds of up to maxIntervals applicable
+    intervals in it, as computed by ValidityScheduleTimeline. The heap holds only the buffers and a few lock stripes.
+
+    regenerate() rewrites the slot of one schedule in place. Lookups read slots with an optimistic StampedLock read of the
+    schedule's stripe, retried under the read lock only if a regeneration in that stripe overlapped, so they allocate
+    nothing and are not blocked by regenerations of other schedules.
+
+    A schedule with more applicable intervals over the horizon than fit in its slot has its timeline cut short, before
+    the first interval that does not fit. lookup() returns UNKNOWN for times outside of a schedule's timeline.
+ */
+public final class ValidityScheduleTimelineStore {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleTimelineStore.class);
+
+    public static final int NOT_APPLICABLE = 0;
+    public static final int APPLICABLE     = 1;
+    public static final int UNKNOWN        = -1;
+
+    static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int HEADER_SIZE  = 8 + 8 + 4 + 4; // from, to, bound count, reserved
+
+    private final int           capacity;
+    private final int           maxIntervals;
+    private final long          horizon;
+    private final int           slotSize;
+    private final int           slotsPerChunk;
+    private final ByteBuffer[]  chunks;
+    private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+
+    private ValidityScheduleTimelineStore(int capacity, int maxIntervals, long horizon, ChunkAllocator allocator) throws IOException {
+        if (capacity < 0 || maxIntervals < 1 || horizon < EpochCalendar.MILLIS_PER_MINUTE) {
+            throw new IllegalArgumentException("capacity:[" + capacity + "], maxIntervals:[" + maxIntervals + "], horizon:[" + horizon + "]");
+        }
+
+        this.capacity = capacity;
+        this.maxIntervals = maxIntervals;
+        this.horizon = horizon;
+        this.slotSize = HEADER_SIZE + maxIntervals * 2 * 8;
+        this.slotsPerChunk = MAX_CHUNK_SIZE / slotSize;
+
+        if (slotsPerChunk == 0) {
+            throw new IllegalArgumentException("maxIntervals too large:[" + maxIntervals + "]");
+        }
+
+        this.chunks = new ByteBuffer[(capacity + slotsPerChunk - 1) / slotsPerChunk];
+
+        for (int i = 0; i < chunks.length; i++) {
+            int slots = Math.min(slotsPerChunk, capacity - i * slotsPerChunk);
+
+            chunks[i] = allocator.allocate((long) i * slotsPerChunk * slotSize, slots * slotSize);
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("ValidityScheduleTimelineStore(capacity=" + capacity + ", maxIntervals=" + maxIntervals + ", horizon=" + horizon + "): " + chunks.length + " chunks");
+        }
+    }
+
+    // Store in direct ByteBuffers
+    public static ValidityScheduleTimelineStore allocate(int capacity, int maxIntervals, long horizon) {
+        try {
+            return new ValidityScheduleTimelineStore(capacity, maxIntervals, horizon, (position, size) -> ByteBuffer.allocateDirect(size));
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception); // not thrown by allocateDirect()
+        }
+    }
+
+    // Store in file, which is created or truncated, then mapped read-write; it is not meant to be read back later
+    public static ValidityScheduleTimelineStore map(@Nonnull Path file, int capacity, int maxIntervals, long horizon) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return new ValidityScheduleTimelineStore(capacity, maxIntervals, horizon, (position, size) -> channel.map(FileChannel.MapMode.READ_WRITE, position, size));
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxIntervals() {
+        return maxIntervals;
+    }
+
+    public long getHorizon() {
+        return horizon;
+    }
+
+    /*
+    Computes the timeline of schedule id over [from, from + horizon) with evaluator, and stores it in place of the
+    previous one. Returns the end of the stored timeline, which is earlier than from + horizon if it was cut short.
+     */
+    public long regenerate(int id, @Nonnull RangerValidityScheduleEvaluator evaluator, long from) {
+        long[] bounds = ValidityScheduleTimeline.getApplicableIntervals(evaluator, from, from + horizon);
+        long to = from + horizon;
+        int count = bounds.length;
+
+        if (count > maxIntervals * 2) {
+            to = bounds[maxIntervals * 2];
+            count = maxIntervals * 2;
+        }
+
+        ByteBuffer chunk = getChunk(id);
+        int offset = getOffset(id);
+        StampedLock lock = getLock(id);
+        long stamp = lock.writeLock();
+
+        try {
+            chunk.putLong(offset, from);
+            chunk.putLong(offset + 8, to);
+            chunk.putInt(offset + 16, count);
+
+            for (int i = 0; i < count; i++) {
+                chunk.putLong(offset + HEADER_SIZE + i * 8, bounds[i]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("regenerate(id=" + id + ", from=" + from + "): " + count / 2 + " intervals, to=" + to);
+        }
+        return to;
+    }
+
+    // Removes the timeline of schedule id; lookups then return UNKNOWN
+    public void clear(int id) {
+        ByteBuffer chunk = getChunk(id);
+        int offset = getOffset(id);
+        StampedLock lock = getLock(id);
+        long stamp = lock.writeLock();
+
+        try {
+            chunk.putLong(offset, 0L);
+            chunk.putLong(offset + 8, 0L);
+            chunk.putInt(offset + 16, 0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // APPLICABLE or NOT_APPLICABLE at localAccessTime, or UNKNOWN if it is outside the timeline of schedule id
+    public int lookup(int id, long localAccessTime) {
+        ByteBuffer chunk = getChunk(id);
+        int offset = getOffset(id);
+        StampedLock lock = getLock(id);
+        long stamp = lock.tryOptimisticRead();
+        int ret = lookup(chunk, offset, localAccessTime);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+
+            try {
+                ret = lookup(chunk, offset, localAccessTime);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return ret;
+    }
+
+    private int lookup(ByteBuffer chunk, int offset, long time) {
+        long from = chunk.getLong(offset);
+        long to = chunk.getLong(offset + 8);
+
+        if (time < from || time >= to) {
+            return UNKNOWN;
+        }
+
+        // bounded, as a read that overlaps a regeneration may see any count
+        int count = Math.max(0, Math.min(chunk.getInt(offset + 16), maxIntervals * 2));
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long bound = chunk.getLong(offset + HEADER_SIZE + mid * 8);
+
+            if (bound < time) {
+                low = mid + 1;
+            } else if (bound > time) {
+                high = mid - 1;
+            } else {
+                return (mid & 1) == 0 ? APPLICABLE : NOT_APPLICABLE; // at a start, or at an end
+            }
+        }
+        return (low & 1) == 1 ? APPLICABLE : NOT_APPLICABLE; // after a start, or after an end
+    }
+
+    private ByteBuffer getChunk(int id) {
+        if (id < 0 || id >= capacity) {
+            throw new IndexOutOfBoundsException("id:[" + id + "], capacity:[" + capacity + "]");
+        }
+        return chunks[id / slotsPerChunk];
+    }
+
+    private int getOffset(int id) {
+        return (id % slotsPerChunk) * slotSize;
+    }
+
+    private StampedLock getLock(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    private interface ChunkAllocator {
+        ByteBuffer allocate(long position, int size) throws IOException;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.plugin.util.RangerPerfTracer;
+
+import javax.annotation.Nonnull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Pushes activation and deactivation of registered schedules to a TransitionListener, instead of having consumers
+    poll isApplicable(). Each schedule waits in a hashed timer wheel for its next transition, as found by
+    RangerValidityScheduleEvaluator.nextTransition() - which accounts for recurrences, their intervals and the schedule's
+    startTime/endTime. Schedules are placed in bucket (tick % wheelSize), in O(1); each tick expires the schedules in its
+    bucket that are due at that tick, fires the listener on the callback executor, and places each again for its next
+    transition.
+
+    Transitions are precise to the minute, as nextTransition() is: a schedule is due at the start of the minute in which
+    it flips, and the listener is told its applicability within that minute. A transition search that ends without a
+    flip only places the schedule again, without firing.
+
+    advance() processes the ticks up to a given time; start() calls it every tick on a daemon thread of the wheel's own.
+    Catching up skips ticks with nothing due: straight to the given time once the wheel is empty, and to the earliest
+    due tick once a full rotation expired nothing.
+    Registration and removal may be called from any thread, and take effect at the next advance().
+ */
+public class ValidityScheduleTimerWheel {
+    private static final Log LOG = LogFactory.getLog(ValidityScheduleTimerWheel.class);
+    private static final Log PERF_LOG = LogFactory.getLog("test.perf.ValidityScheduleTimerWheel");
+
+    private static final String PERF_TAG_ADVANCE = "ValidityScheduleTimerWheel.advance()";
+
+    public static final long DEFAULT_TICK_MS    = EpochCalendar.MILLIS_PER_MINUTE;
+    public static final int  DEFAULT_WHEEL_SIZE = 512;
+
+    private static final long NO_TICK = Long.MIN_VALUE;
+
+    public interface TransitionListener {
+        // isApplicable is the applicability of schedule scheduleId from time, the start of the minute it flipped in
+        void onTransition(long scheduleId, boolean isApplicable, long time);
+    }
+
+    private final TransitionListener            listener;
+    private final Executor                      executor;
+    private final long                          tickMs;
+    private final Entry[]                       buckets;
+    private final ConcurrentMap<Long, Entry>    entries = new ConcurrentHashMap<>();
+    private final Queue<Entry>                  pending = new ConcurrentLinkedQueue<>();
+    private long                                currentTick = NO_TICK; // next tick to process; guarded by this
+    private int                                 placedCount;           // entries in buckets; guarded by this
+    private ScheduledExecutorService            ticker;
+
+    public ValidityScheduleTimerWheel(@Nonnull TransitionListener listener, @Nonnull Executor executor) {
+        this(listener, executor, DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public ValidityScheduleTimerWheel(@Nonnull TransitionListener listener, @Nonnull Executor executor, long tickMs, int wheelSize) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMs:[" + tickMs + "], wheelSize:[" + wheelSize + "]");
+        }
+        this.listener = listener;
+        this.executor = executor;
+        this.tickMs = tickMs;
+        this.buckets = new Entry[wheelSize];
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean register(long scheduleId, @Nonnull RangerValidityScheduleEvaluator evaluator) {
+        return register(scheduleId, evaluator, System.currentTimeMillis());
+    }
+
+    /*
+    Registers evaluator as schedule scheduleId, replacing any earlier registration, and returns its applicability at
+    now - which is not reported to the listener. Transitions after now are.
+     */
+    public boolean register(long scheduleId, @Nonnull RangerValidityScheduleEvaluator evaluator, long now) {
+        RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(now);
+        Entry entry = new Entry(scheduleId, evaluator, transition.isApplicable());
+        Entry previous = entries.put(scheduleId, entry);
+
+        if (previous != null) {
+            previous.isCancelled = true;
+        }
+        if (transition.getTime() != Long.MAX_VALUE) {
+            entry.setDueTime(transition.getTime());
+            pending.add(entry);
+        }
+        return transition.isApplicable();
+    }
+
+    public boolean unregister(long scheduleId) {
+        Entry entry = entries.remove(scheduleId);
+
+        if (entry != null) {
+            entry.isCancelled = true;
+        }
+        return entry != null;
+    }
+
+    // Processes every tick up to now; returns the number of transitions fired
+    public synchronized int advance(long now) {
+        RangerPerfTracer perf = null;
+
+        if (RangerPerfTracer.isPerfTraceEnabled(PERF_LOG)) {
+            perf = RangerPerfTracer.getPerfTracer(PERF_LOG, PERF_TAG_ADVANCE);
+        }
+
+        long targetTick = Math.floorDiv(now, tickMs);
+        int ret = 0;
+
+        if (currentTick == NO_TICK) { // first advance: start from the earliest transition registered before it
+            currentTick = targetTick;
+
+            for (Entry entry : pending) {
+                currentTick = Math.min(currentTick, getDueTick(entry));
+            }
+        }
+
+        for (Entry entry = pending.poll(); entry != null; entry = pending.poll()) {
+            if (!entry.isCancelled) {
+                place(entry, currentTick);
+            }
+        }
+
+        int idleTicks = 0;
+
+        while (currentTick <= targetTick) {
+            if (placedCount == 0) { // nothing to expire up to now
+                currentTick = targetTick + 1;
+                break;
+            }
+            if (idleTicks == buckets.length) { // a full rotation expired nothing: skip to the earliest due tick
+                currentTick = Math.min(getEarliestDueTick(), targetTick + 1);
+                idleTicks = 0;
+                continue;
+            }
+
+            int bucket = getBucket(currentTick);
+            Entry expired = null;
+            Entry previous = null;
+
+            for (Entry entry = buckets[bucket]; entry != null; ) {
+                Entry next = entry.next;
+
+                if (entry.isCancelled || entry.dueTick <= currentTick) {
+                    if (previous == null) {
+                        buckets[bucket] = next;
+                    } else {
+                        previous.next = next;
+                    }
+                    placedCount--;
+                    if (!entry.isCancelled) {
+                        entry.next = expired;
+                        expired = entry;
+                    }
+                } else {
+                    previous = entry;
+                }
+                entry = next;
+            }
+
+            idleTicks = expired == null ? idleTicks + 1 : 0;
+
+            for (Entry entry = expired; entry != null; ) {
+                Entry next = entry.next;
+
+                if (expire(entry)) {
+                    ret++;
+                }
+                entry = next;
+            }
+            currentTick++;
+        }
+        RangerPerfTracer.logAlways(perf);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("advance(now=" + now + "): " + ret + " transitions");
+        }
+        return ret;
+    }
+
+    // Calls advance() every tick, on a daemon thread, until stop() is called
+    public synchronized void start() {
+        if (ticker == null) {
+            long now = System.currentTimeMillis();
+
+            ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ValidityScheduleTimerWheel-ticker");
+
+                thread.setDaemon(true);
+
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(this::tick, tickMs - Math.floorMod(now, tickMs), tickMs, TimeUnit.MILLISECONDS);
+            advance(now);
+        }
+    }
+
+    public void stop() {
+        ScheduledExecutorService ticker;
+
+        synchronized (this) {
+            ticker = this.ticker;
+            this.ticker = null;
+        }
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    private void tick() {
+        try {
+            advance(System.currentTimeMillis());
+        } catch (RuntimeException exception) {
+            LOG.error("Error advancing timer wheel", exception);
+        }
+    }
+
+    // Fires the transition of entry, if applicability did flip, and places it again for the next one
+    private boolean expire(Entry entry) {
+        long minuteStart = entry.dueTime;
+        RangerValidityScheduleEvaluator.Transition transition = entry.evaluator.nextTransition(minuteStart + EpochCalendar.MILLIS_PER_SECOND);
+        boolean ret = transition.isApplicable() != entry.isApplicable;
+
+        if (ret) {
+            final long scheduleId = entry.scheduleId;
+            final boolean isApplicable = transition.isApplicable();
+
+            entry.isApplicable = isApplicable;
+
+            try {
+                executor.execute(() -> listener.onTransition(scheduleId, isApplicable, minuteStart));
+            } catch (RejectedExecutionException exception) {
+                LOG.error("Error firing transition of schedule:[" + scheduleId + "], isApplicable:[" + isApplicable + "]", exception);
+            }
+        }
+        if (transition.getTime() != Long.MAX_VALUE) {
+            entry.setDueTime(transition.getTime());
+            place(entry, currentTick + 1);
+        } else {
+            entries.remove(entry.scheduleId, entry); // never flips again
+        }
+        return ret;
+    }
+
+    // Adds entry to the bucket of its due tick, or of minTick if that is later
+    private void place(Entry entry, long minTick) {
+        int bucket;
+
+        entry.dueTick = Math.max(getDueTick(entry), minTick);
+        bucket = getBucket(entry.dueTick);
+        entry.next = buckets[bucket];
+        buckets[bucket] = entry;
+        placedCount++;
+    }
+
+    // Earliest due tick of the entries in buckets, or Long.MAX_VALUE if none is due
+    private long getEarliestDueTick() {
+        long ret = Long.MAX_VALUE;
+
+        for (Entry bucket : buckets) {
+            for (Entry entry = bucket; entry != null; entry = entry.next) {
+                if (!entry.isCancelled) {
+                    ret = Math.min(ret, entry.dueTick);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private long getDueTick(Entry entry) {
+        return Math.floorDiv(entry.dueTime + tickMs - 1, tickMs);
+    }
+
+    private int getBucket(long tick) {
+        return (int) Math.floorMod(tick, (long) buckets.length);
+    }
+
+    private static final class Entry {
+        final long                            scheduleId;
+        final RangerValidityScheduleEvaluator evaluator;
+        boolean                               isApplicable;
+        long                                  dueTime;     // start of the minute of the next transition
+        long                                  dueTick;
+        Entry                                 next;        // in the same bucket
+        volatile boolean                      isCancelled;
+
+        Entry(long scheduleId, RangerValidityScheduleEvaluator evaluator, boolean isApplicable) {
+            this.scheduleId = scheduleId;
+            this.evaluator = evaluator;
+            this.isApplicable = isApplicable;
+        }
+
+        void setDueTime(long transitionTime) {
+            dueTime = Math.floorDiv(transitionTime, EpochCalendar.MILLIS_PER_MINUTE) * EpochCalendar.MILLIS_PER_MINUTE;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+    Immutable table of the difference between the offsets of two time-zones - target minus base - for every instant
+    between TABLE_START_TIME and TABLE_END_TIME. The difference changes only when either zone has an offset transition,
+    so it is kept as the sorted instants of those transitions, each with the difference from then on; a lookup is a
+    binary search. Instants outside of the table fall back to TimeZone.getOffset().
+
+    getAdjustmentOffsets() returns the table used by RangerValiditySchedule.getAdjustedTime() for a target zone, against
+    the default time-zone; these are resolved once per zone-id and shared. getDefaultZoneOffsets() returns the offsets of
+    the default time-zone itself.
+ */
+public final class ZoneOffsetTable {
+    private static final Log LOG = LogFactory.getLog(ZoneOffsetTable.class);
+
+    static final long TABLE_START_TIME = -2208988800000L; // 1900-01-01T00:00:00Z
+    static final long TABLE_END_TIME   = 4133980800000L;  // 2101-01-01T00:00:00Z
+
+    private static final ConcurrentMap<String, ZoneOffsetTable> ADJUSTMENT_OFFSETS = new ConcurrentHashMap<>();
+    private static final ZoneOffsetTable NO_OFFSETS = new ZoneOffsetTable(null, null);
+
+    private final TimeZone targetTZ;
+    private final TimeZone baseTZ;
+    private final long[]   transitionTimes;
+    private final int[]    offsets;       // offsets[i] applies from transitionTimes[i], until transitionTimes[i + 1]
+    private final int      initialOffset; // applies from TABLE_START_TIME, until transitionTimes[0]
+
+    private ZoneOffsetTable(TimeZone targetTZ, TimeZone baseTZ) {
+        this.targetTZ = targetTZ;
+        this.baseTZ = baseTZ;
+
+        long[] targetTransitions = getTransitionTimes(targetTZ);
+        long[] baseTransitions = getTransitionTimes(baseTZ);
+        long[] transitions = Arrays.copyOf(targetTransitions, targetTransitions.length + baseTransitions.length);
+
+        System.arraycopy(baseTransitions, 0, transitions, targetTransitions.length, baseTransitions.length);
+        Arrays.sort(transitions);
+
+        // drop duplicate instants, and transitions where the difference between the zones does not change
+        long[] times = new long[transitions.length];
+        int[]  values = new int[transitions.length];
+        int    count = 0;
+        int    previousOffset = computeOffset(TABLE_START_TIME);
+
+        this.initialOffset = previousOffset;
+
+        for (long transition : transitions) {
+            int offset = computeOffset(transition);
+
+            if (offset != previousOffset) {
+                times[count] = transition;
+                values[count] = offset;
+                count++;
+                previousOffset = offset;
+            }
+        }
+        this.transitionTimes = Arrays.copyOf(times, count);
+        this.offsets = Arrays.copyOf(values, count);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("ZoneOffsetTable(target=" + (targetTZ == null ? null : targetTZ.getID()) + ", base=" + (baseTZ == null ? null : baseTZ.getID()) + "): " + count + " transitions");
+        }
+    }
+
+    public static ZoneOffsetTable getAdjustmentOffsets(String timeZoneId) {
+        ZoneOffsetTable ret = ADJUSTMENT_OFFSETS.get(timeZoneId);
+
+        if (ret == null) {
+            TimeZone targetTZ = TimeZone.getTimeZone(timeZoneId);
+            TimeZone defaultTZ = RangerValiditySchedule.getDefaultTimeZone();
+            ZoneOffsetTable offsets = defaultTZ.equals(targetTZ) ? NO_OFFSETS : new ZoneOffsetTable(targetTZ, defaultTZ);
+
+            ret = ADJUSTMENT_OFFSETS.putIfAbsent(timeZoneId, offsets);
+
+            if (ret == null) {
+                ret = offsets;
+            }
+        }
+        return ret;
+    }
+
+    public static ZoneOffsetTable getDefaultZoneOffsets() {
+        return DefaultZoneOffsetsHolder.INSTANCE;
+    }
+
+    public int getOffset(long time) {
+        final int ret;
+
+        if (time < TABLE_START_TIME || time >= TABLE_END_TIME) {
+            ret = computeOffset(time);
+        } else {
+            int index = Arrays.binarySearch(transitionTimes, time);
+
+            if (index < 0) {
+                index = -index - 2;
+            }
+            ret = index < 0 ? initialOffset : offsets[index];
+        }
+        return ret;
+    }
+
+    // First instant after time at which the offset may change; Long.MAX_VALUE if there is none
+    public long getNextTransitionTime(long time) {
+        final long ret;
+
+        if (time >= TABLE_END_TIME) {
+            ret = Long.MAX_VALUE;
+        } else if (time < TABLE_START_TIME) {
+            ret = TABLE_START_TIME;
+        } else {
+            int index = Arrays.binarySearch(transitionTimes, time);
+
+            index = index < 0 ? -index - 1 : index + 1;
+            ret = index < transitionTimes.length ? transitionTimes[index] : TABLE_END_TIME;
+        }
+        return ret;
+    }
+
+    // Last instant, at or before time, at which the offset may have changed; Long.MIN_VALUE if there is none
+    public long getPreviousTransitionTime(long time) {
+        final long ret;
+
+        if (time < TABLE_START_TIME) {
+            ret = Long.MIN_VALUE;
+        } else if (time >= TABLE_END_TIME) {
+            ret = TABLE_END_TIME;
+        } else {
+            int index = Arrays.binarySearch(transitionTimes, time);
+
+            index = index < 0 ? -index - 2 : index;
+            ret = index >= 0 ? transitionTimes[index] : Long.MIN_VALUE;
+        }
+        return ret;
+    }
+
+    // Same as RangerValiditySchedule.getAdjustedTime(time, target-zone), for a table from getAdjustmentOffsets()
+    public long getAdjustedTime(long time) {
+        return time + getOffset(time);
+    }
+
+    private int computeOffset(long time) {
+        return (targetTZ == null ? 0 : targetTZ.getOffset(time)) - (baseTZ == null ? 0 : baseTZ.getOffset(time));
+    }
+
+    private static long[] getTransitionTimes(TimeZone timeZone) {
+        long[] ret = new long[0];
+
+        if (timeZone != null) {
+            ZoneRules rules = timeZone.toZoneId().getRules();
+            int count = 0;
+
+            for (ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(TABLE_START_TIME));
+                 transition != null && transition.getInstant().toEpochMilli() < TABLE_END_TIME;
+                 transition = rules.nextTransition(transition.getInstant())) {
+                if (count == ret.length) {
+                    ret = Arrays.copyOf(ret, Math.max(2 * count, 16));
+                }
+                ret[count++] = transition.getInstant().toEpochMilli();
+            }
+            ret = Arrays.copyOf(ret, count);
+        }
+        return ret;
+    }
+
+    private static final class DefaultZoneOffsetsHolder {
+        static final ZoneOffsetTable INSTANCE = new ZoneOffsetTable(RangerValiditySchedule.getDefaultTimeZone(), null);
+    }
+}
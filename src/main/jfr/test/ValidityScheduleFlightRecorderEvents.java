@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timestamp;
+
+/*
+    Flight Recorder event classes of ValidityScheduleFlightRecorder, which loads this class by name. Kept apart, under
+    src/main/jfr, as the only code that needs jdk.jfr to compile - OpenJDK 8u262 or later, or Java 11.
+ */
+final class ValidityScheduleFlightRecorderEvents implements ValidityScheduleFlightRecorder.Events {
+    private static final String CATEGORY = "Validity Schedule";
+
+    private final EventType evaluation;
+    private final EventType validation;
+    private final EventType compile;
+
+    ValidityScheduleFlightRecorderEvents() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("Java Flight Recorder is not available");
+        }
+
+        this.evaluation = EventType.getEventType(EvaluationEvent.class);
+        this.validation = EventType.getEventType(ValidationEvent.class);
+        this.compile = EventType.getEventType(CompileEvent.class);
+    }
+
+    @Override
+    public boolean isEvaluationEnabled() {
+        return evaluation.isEnabled();
+    }
+
+    @Override
+    public boolean isValidationEnabled() {
+        return validation.isEnabled();
+    }
+
+    @Override
+    public boolean isCompileEnabled() {
+        return compile.isEnabled();
+    }
+
+    @Override
+    public ValidityScheduleFlightRecorder.EvaluationEvent newEvaluationEvent() {
+        return new EvaluationEvent();
+    }
+
+    @Override
+    public ValidityScheduleFlightRecorder.ValidationEvent newValidationEvent() {
+        return new ValidationEvent();
+    }
+
+    @Override
+    public ValidityScheduleFlightRecorder.CompileEvent newCompileEvent() {
+        return new CompileEvent();
+    }
+
+    @Name(ValidityScheduleFlightRecorder.EVALUATION_EVENT)
+    @Label("Schedule Evaluation")
+    @Category(CATEGORY)
+    @Description("Applicability of a validity schedule at an access time")
+    @Enabled(false)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class EvaluationEvent extends Event implements ValidityScheduleFlightRecorder.EvaluationEvent {
+        @Label("Schedule Id")
+        long scheduleId;
+
+        @Label("Access Time")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long accessTime;
+
+        @Label("Applicable")
+        boolean isApplicable;
+
+        @Label("Search Steps")
+        @Description("Points visited by the transition search; 0 when answered from the remembered window or minute memo")
+        long searchSteps;
+
+        @Override
+        public void set(long scheduleId, long accessTime, boolean isApplicable) {
+            this.scheduleId = scheduleId;
+            this.accessTime = accessTime;
+            this.isApplicable = isApplicable;
+        }
+
+        @Override
+        public void setSearchSteps(long searchSteps) {
+            this.searchSteps = searchSteps;
+        }
+    }
+
+    @Name(ValidityScheduleFlightRecorder.VALIDATION_EVENT)
+    @Label("Schedule Validation")
+    @Category(CATEGORY)
+    @Description("Validation of a validity schedule")
+    @Enabled(false)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class ValidationEvent extends Event implements ValidityScheduleFlightRecorder.ValidationEvent {
+        @Label("Recurrences")
+        int recurrences;
+
+        @Label("Failures")
+        int failures;
+
+        @Label("Valid")
+        boolean isValid;
+
+        @Override
+        public void set(int recurrences, int failures, boolean isValid) {
+            this.recurrences = recurrences;
+            this.failures = failures;
+            this.isValid = isValid;
+        }
+    }
+
+    @Name(ValidityScheduleFlightRecorder.COMPILE_EVENT)
+    @Label("Schedule Compile")
+    @Category(CATEGORY)
+    @Description("Compilation of a validity schedule, or of one of its recurrences")
+    @Enabled(false)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class CompileEvent extends Event implements ValidityScheduleFlightRecorder.CompileEvent {
+        @Label("Source")
+        String source;
+
+        @Label("Schedule Id")
+        long scheduleId;
+
+        @Label("Schedule")
+        String schedule;
+
+        @Label("Recurrences")
+        int recurrences;
+
+        @Override
+        public void set(String source, long scheduleId, String schedule, int recurrences) {
+            this.source = source;
+            this.scheduleId = scheduleId;
+            this.schedule = schedule;
+            this.recurrences = recurrences;
+        }
+    }
+}
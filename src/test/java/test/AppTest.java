@@ -30,20 +30,47 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+import org.codehaus.jackson.JsonParseException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
 
 /**
  * Unit tests for chron.
@@ -64,6 +91,12 @@ public class AppTest
         Date accessTime;
         TestResult result;
     }
+    class ScheduleFixture {
+        int index; // among the schedules of all test cases
+        String testCaseName;
+        RangerValiditySchedule validatedSchedule;
+        long accessTime;
+    }
 
     private static Gson gson;
 
@@ -229,8 +262,1664 @@ public class AppTest
     public void testRangerValiditySchedulesForApplicability() {
         readAndRunTests("/validity-schedules-valid-and-applicable.json");
     }
+    public void testRangerValiditySchedulesForApplicabilityWithEpochArithmetic() {
+        readAndRunTests("/validity-schedules-valid-and-applicable.json", RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+    }
+
+    public void testEvaluationEnginesAgree() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        TimeZone defaultTZ = TimeZone.getDefault();
+        long step = 7 * 60 * 1000L + 13 * 1000L;
+        long window = 5 * 24 * 60 * 60 * 1000L;
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                RangerValidityScheduleEvaluator calendarEvaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+                RangerValidityScheduleEvaluator epochEvaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+
+                for (long time = testCase.accessTime.getTime() - window; time < testCase.accessTime.getTime() + window; time += step) {
+                    if (time % (60 * 1000L) < 1000L || defaultTZ.getOffset(time) != defaultTZ.getOffset(time - window)) {
+                        continue; // engines may differ at the start of a minute, and across DST transitions
+                    }
+                    assertEquals("testCase:[" + testCase.name + "], time:[" + new Date(time) + "]", calendarEvaluator.evaluate(time), epochEvaluator.evaluate(time));
+                }
+            }
+        }
+    }
+
+    public void testNextTransition() {
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        RangerValidityRecurrence recurrence = new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null));
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(recurrence);
+        RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20180201-00:00", null, recurrences);
+
+        RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(new GregorianCalendar(2018, Calendar.JANUARY, 10, 10, 30, 15).getTimeInMillis());
+        assertTrue(transition.isApplicable());
+        assertEquals(new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0).getTimeInMillis(), transition.getTime());
+
+        transition = evaluator.nextTransition(new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 30, 15).getTimeInMillis());
+        assertFalse(transition.isApplicable());
+        assertEquals(new GregorianCalendar(2018, Calendar.JANUARY, 11, 9, 0).getTimeInMillis(), transition.getTime());
+
+        transition = evaluator.nextTransition(new GregorianCalendar(2018, Calendar.JANUARY, 31, 10, 30, 15).getTimeInMillis());
+        assertTrue(transition.isApplicable());
+        assertEquals(new GregorianCalendar(2018, Calendar.JANUARY, 31, 17, 0).getTimeInMillis(), transition.getTime());
+
+        transition = evaluator.nextTransition(new GregorianCalendar(2018, Calendar.FEBRUARY, 5, 10, 30, 15).getTimeInMillis());
+        assertFalse(transition.isApplicable());
+        assertEquals(Long.MAX_VALUE, transition.getTime());
+    }
+
+    public void testNextTransitionInZoneWithoutOffsetChanges() throws Exception {
+        // the offsets of the default time-zone are loaded once, so the check runs in a JVM of its own, in UTC
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(), "-Duser.timezone=UTC",
+                "-cp", System.getProperty("java.class.path"), ZoneWithoutOffsetChangesCheck.class.getName()).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+
+        try (Reader reader = new InputStreamReader(process.getInputStream(), Charset.defaultCharset())) {
+            char[] buffer = new char[4096];
+
+            for (int count = reader.read(buffer); count != -1; count = reader.read(buffer)) {
+                output.append(buffer, 0, count);
+            }
+        }
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(output.toString(), 0, process.exitValue());
+    }
+
+    public void testNextTransitionAgreesWithIsApplicable() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        long window = 2 * 24 * 60 * 60 * 1000L;
+        RangerValidityScheduleEvaluator.EvaluationEngine[] engines = { RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC, RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS };
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+
+                for (RangerValidityScheduleEvaluator.EvaluationEngine engine : engines) {
+                    RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(validatedSchedule, engine);
+
+                    for (long time = testCase.accessTime.getTime() - window + 1234; time < testCase.accessTime.getTime() + window; ) {
+                        RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(time);
+                        String message = "testCase:[" + testCase.name + "], engine:[" + engine + "], time:[" + new Date(time) + "], transition:[" + transition + "]";
+
+                        assertTrue(message, transition.getTime() > time);
+                        assertEquals(message, evaluator.evaluate(time), transition.isApplicable());
+                        if (transition.getTime() == Long.MAX_VALUE) {
+                            break;
+                        }
+                        for (long sample = time; sample < transition.getTime(); sample += 17 * 60 * 1000L + 1111) {
+                            assertEquals(message + ", sample:[" + new Date(sample) + "]", transition.isApplicable(), evaluator.evaluate(sample));
+                        }
+                        assertEquals(message, transition.isApplicable(), evaluator.evaluate(transition.getTime() - 1));
+                        time = transition.getTime();
+                    }
+                }
+            }
+        }
+    }
+
+    public void testIsApplicableAgreesWithEvaluateAcrossDst() {
+        String[][] schedules = { // minute, hour, interval hours, interval minutes, time-zone
+                { "15", "0-3", "0", "30", null },
+                { "30", "2",   "1", "0",  "America/New_York" },
+                { "30", "0",   "3", "0",  null },
+                { "0",  "9",   "20", "0", "Asia/Kolkata" },
+        };
+        long[] dstChanges = { new GregorianCalendar(2018, Calendar.MARCH, 11).getTimeInMillis(), new GregorianCalendar(2018, Calendar.NOVEMBER, 4).getTimeInMillis() };
+        long window = 2 * 24 * 60 * 60 * 1000L;
+
+        for (RangerValidityScheduleEvaluator.EvaluationEngine engine : RangerValidityScheduleEvaluator.EvaluationEngine.values()) {
+            for (String[] schedule : schedules) {
+                List<RangerValidityRecurrence> recurrences = Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule(schedule[0], schedule[1], "*", "", "*", "*"),
+                        new RangerValidityRecurrence.ValidityInterval(0, Integer.parseInt(schedule[2]), Integer.parseInt(schedule[3]), null)));
+
+                for (long dstChange : dstChanges) {
+                    // one evaluator across the change, so that windows remembered before it are used after it
+                    RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", schedule[4], recurrences, engine);
+
+                    for (long time = dstChange - window + 10 * 1000L; time < dstChange + window; time += 7 * 60 * 1000L) {
+                        assertEquals("engine:[" + engine + "], schedule:" + Arrays.toString(schedule) + ", time:[" + new Date(time) + "]", evaluator.evaluate(time), evaluator.isApplicable(time));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testResultCache() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        long window = 2 * 24 * 60 * 60 * 1000L;
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+
+                // nearly monotonic: every third access goes back in time
+                for (long time = testCase.accessTime.getTime() - window + 4321, count = 0; time < testCase.accessTime.getTime() + window; time += 3 * 60 * 1000L + 777, count++) {
+                    long accessTime = count % 3 == 2 ? time - 40 * 60 * 1000L : time;
+
+                    assertEquals("testCase:[" + testCase.name + "], time:[" + new Date(accessTime) + "]", evaluator.evaluate(accessTime), evaluator.isApplicable(accessTime));
+                }
+            }
+        }
+
+        // every minute, for a minute: deterministic engines are not applicable in the first second, where the window opens
+        StringBuilder everyMinute = new StringBuilder("0");
+
+        for (int minute = 1; minute < 60; minute++) {
+            everyMinute.append(',').append(minute); // the minute field takes no wildcard
+        }
+
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule(everyMinute.toString(), "*", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = Collections.singletonList(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 0, 1, null)));
+        long minuteStart = new GregorianCalendar(2018, Calendar.JANUARY, 10, 9, 10).getTimeInMillis();
+
+        for (RangerValidityScheduleEvaluator.EvaluationEngine engine : new RangerValidityScheduleEvaluator.EvaluationEngine[] { RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC, RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS }) {
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20180201-00:00", null, recurrences, engine);
+
+            for (long offset : new long[] { -30 * 1000L, 0, 500, 998, 999, 1000, 30 * 1000L, 59999, 60 * 1000L + 999, 61 * 1000L }) {
+                long time = minuteStart + offset;
+
+                assertEquals("engine:[" + engine + "], time:[" + new Date(time) + "]", Math.floorMod(offset, 60 * 1000L) >= 1000L, evaluator.evaluate(time));
+                assertEquals("engine:[" + engine + "], time:[" + new Date(time) + "]", evaluator.evaluate(time), evaluator.isApplicable(time));
+            }
+        }
+    }
+
+    public void testBatchEvaluation() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        Random random = new Random(20180101L);
+        long window = 3 * 24 * 60 * 60 * 1000L;
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+                long[] times = new long[500];
+
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = testCase.accessTime.getTime() - window + (long) (random.nextDouble() * 2 * window);
+                }
+
+                BitSet unsorted = evaluator.isApplicable(LongStream.of(times));
+                BitSet sorted = new BitSet();
+                long[] sortedTimes = times.clone();
+                Arrays.sort(sortedTimes);
+                evaluator.isApplicable(sortedTimes, sorted);
+
+                for (int i = 0; i < times.length; i++) {
+                    String message = "testCase:[" + testCase.name + "], time:[" + new Date(times[i]) + "]";
+                    assertEquals(message, evaluator.evaluate(times[i]), unsorted.get(i));
+                    assertEquals(message, evaluator.evaluate(sortedTimes[i]), sorted.get(i));
+                }
+            }
+        }
+    }
+
+    public void testValidityScheduleIndex() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        List<RangerValiditySchedule> validitySchedules = new ArrayList<>();
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                validitySchedules.add(new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>()));
+            }
+        }
+
+        ValidityScheduleIndex index = new ValidityScheduleIndex(validitySchedules);
+
+        for (TestCase testCase : testCases) {
+            for (long offset = -3 * 24 * 60 * 60 * 1000L; offset <= 3 * 24 * 60 * 60 * 1000L; offset += 97 * 60 * 1000L + 1234) {
+                long time = testCase.accessTime.getTime() + offset;
+                List<Integer> expected = new ArrayList<>();
+
+                for (int id = 0; id < validitySchedules.size(); id++) {
+                    if (new RangerValidityScheduleEvaluator(validitySchedules.get(id)).isApplicable(time)) {
+                        expected.add(id);
+                    }
+                }
+
+                int[] active = index.getActiveScheduleIds(time);
+                List<Integer> actual = new ArrayList<>();
+
+                for (int id : active) {
+                    actual.add(id);
+                }
+                assertEquals("testCase:[" + testCase.name + "], time:[" + new Date(time) + "]", expected, actual);
+            }
+        }
+    }
+
+    public void testValidityScheduleEvaluatorCache() {
+        List<TestCase> testCases = getTestCases("/validity-schedules-valid-and-applicable.json");
+        ValidityScheduleEvaluatorCache evaluatorCache = new ValidityScheduleEvaluatorCache();
+
+        for (TestCase testCase : testCases) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule first = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                RangerValiditySchedule second = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                RangerValidityScheduleEvaluator evaluator = evaluatorCache.getEvaluator(first);
+
+                assertSame(evaluator, evaluatorCache.getEvaluator(second));
+                assertEquals(new RangerValidityScheduleEvaluator(first).isApplicable(testCase.accessTime.getTime()), evaluator.isApplicable(testCase.accessTime.getTime()));
+            }
+        }
+
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 0, 480, null)));
+        List<RangerValidityRecurrence> reversed = new ArrayList<>(recurrences);
+        Collections.reverse(reversed);
+
+        assertEquals(ValidityScheduleEvaluatorCache.getCanonicalKey(new RangerValiditySchedule("20180101-00:00", "20180201-00:00", null, recurrences)),
+                ValidityScheduleEvaluatorCache.getCanonicalKey(new RangerValiditySchedule("20180101-00:00", "20180201-00:00", "", reversed)));
+        assertFalse(ValidityScheduleEvaluatorCache.getCanonicalKey(new RangerValiditySchedule("20180101-00:00", "20180201-00:00", null, recurrences))
+                .equals(ValidityScheduleEvaluatorCache.getCanonicalKey(new RangerValiditySchedule("20180101-00:00", "20180201-00:00", "GMT", recurrences))));
+
+        ValidityScheduleEvaluatorCache smallCache = new ValidityScheduleEvaluatorCache(1, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+        smallCache.getEvaluator(new RangerValiditySchedule("20180101-00:00", "20180201-00:00", null, recurrences));
+        smallCache.getEvaluator(new RangerValiditySchedule("20180101-00:00", "20180301-00:00", null, recurrences));
+        assertEquals(1, smallCache.size());
+
+        // a day is not 24 hours across an offset change, so the two do not share an evaluator
+        RangerValidityRecurrence.RecurrenceSchedule sunday = new RangerValidityRecurrence.RecurrenceSchedule("0", "0", null, "1", "*", "*");
+        RangerValiditySchedule oneDay = new RangerValiditySchedule("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(sunday, new RangerValidityRecurrence.ValidityInterval(1, 0, 0, null))));
+        RangerValiditySchedule twentyFourHours = new RangerValiditySchedule("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(sunday, new RangerValidityRecurrence.ValidityInterval(0, 24, 0, null))));
+        long afterOffsetChange = new GregorianCalendar(2018, Calendar.MARCH, 12, 0, 30).getTimeInMillis();
+
+        assertFalse(ValidityScheduleEvaluatorCache.getCanonicalKey(oneDay).equals(ValidityScheduleEvaluatorCache.getCanonicalKey(twentyFourHours)));
+        assertEquals(new RangerValidityScheduleEvaluator(oneDay).isApplicable(afterOffsetChange), evaluatorCache.getEvaluator(oneDay).isApplicable(afterOffsetChange));
+        assertEquals(new RangerValidityScheduleEvaluator(twentyFourHours).isApplicable(afterOffsetChange), evaluatorCache.getEvaluator(twentyFourHours).isApplicable(afterOffsetChange));
+    }
+
+    public void testSparseDayOfMonth() {
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "31", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(1, 0, 0, null)));
+
+        for (RangerValidityScheduleEvaluator.EvaluationEngine engine : RangerValidityScheduleEvaluator.EvaluationEngine.values()) {
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", null, recurrences, engine);
+
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.MARCH, 31, 10, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.APRIL, 1, 8, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.APRIL, 1, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.MAY, 1, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.JULY, 1, 10, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.AUGUST, 1, 8, 0, 5).getTimeInMillis()));
+        }
+    }
+
+    public void testSparseYearAndMonth() {
+        RangerValidityRecurrence.RecurrenceSchedule december2017 = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "12", "2017");
+        RangerValidityRecurrence.RecurrenceSchedule winter2029 = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "1, 12", "2029");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(december2017, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        recurrences.add(new RangerValidityRecurrence(winter2029, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+
+        for (RangerValidityScheduleEvaluator.EvaluationEngine engine : RangerValidityScheduleEvaluator.EvaluationEngine.values()) {
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20170101-00:00", "20300101-00:00", null, recurrences, engine);
+
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2017, Calendar.NOVEMBER, 30, 10, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2017, Calendar.DECEMBER, 1, 16, 59, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2017, Calendar.DECEMBER, 1, 17, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2017, Calendar.DECEMBER, 31, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 1, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2018, Calendar.MAY, 16, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2028, Calendar.DECEMBER, 31, 10, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2029, Calendar.JANUARY, 15, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2029, Calendar.FEBRUARY, 1, 10, 0, 5).getTimeInMillis()));
+            assertFalse(engine.name(), evaluator.evaluate(new GregorianCalendar(2029, Calendar.NOVEMBER, 30, 10, 0, 5).getTimeInMillis()));
+            assertTrue(engine.name(), evaluator.evaluate(new GregorianCalendar(2029, Calendar.DECEMBER, 1, 10, 0, 5).getTimeInMillis()));
+        }
+    }
+
+    public void testScheduledDaysEngine() {
+        readAndRunTests("/validity-schedules-valid-and-applicable.json", RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS);
+
+        // from 9:00 for 20 hours: before 9:00, the window opened on the previous day
+        RangerValidityScheduleEvaluator daily = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*"),
+                        new RangerValidityRecurrence.ValidityInterval(0, 20, 0, null))), RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS);
+
+        assertTrue(daily.evaluate(new GregorianCalendar(2018, Calendar.MAY, 16, 3, 0, 5).getTimeInMillis()));
+        assertFalse(daily.evaluate(new GregorianCalendar(2018, Calendar.MAY, 16, 6, 0, 5).getTimeInMillis()));
+        assertTrue(daily.evaluate(new GregorianCalendar(2018, Calendar.MAY, 16, 10, 0, 5).getTimeInMillis()));
+
+        // on the 15th or on Mondays of 2018 only: Monday, January 1st, matches; December 15th, 2017 does not
+        RangerValidityScheduleEvaluator fifteenthOrMonday = new RangerValidityScheduleEvaluator("20170101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "15", "2", "*", "2018"),
+                        new RangerValidityRecurrence.ValidityInterval(2, 0, 0, null))), RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS);
+
+        assertFalse(fifteenthOrMonday.evaluate(new GregorianCalendar(2017, Calendar.DECEMBER, 16, 10, 0, 5).getTimeInMillis()));
+        assertTrue(fifteenthOrMonday.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 2, 10, 0, 5).getTimeInMillis()));
+        assertFalse(fifteenthOrMonday.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 4, 10, 0, 5).getTimeInMillis()));
+        assertTrue(fifteenthOrMonday.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 16, 10, 0, 5).getTimeInMillis()));
+
+        // in December 2017 only, for 10 days: the last window opens on December 31st
+        RangerValidityScheduleEvaluator december = new RangerValidityScheduleEvaluator("20170101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "12", "2017"),
+                        new RangerValidityRecurrence.ValidityInterval(10, 0, 0, null))), RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS);
+
+        assertTrue(december.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 5, 10, 0, 5).getTimeInMillis()));
+        assertFalse(december.evaluate(new GregorianCalendar(2018, Calendar.JANUARY, 10, 10, 0, 5).getTimeInMillis()));
+        assertFalse(december.evaluate(new GregorianCalendar(2017, Calendar.NOVEMBER, 30, 10, 0, 5).getTimeInMillis()));
+    }
+
+    public void testScheduledDaysEngineDisagreesWithCalendarOnlyAsDocumented() {
+        final Random random = new Random(20180516L);
+        final TimeZone defaultTZ = TimeZone.getDefault();
+        final long from = new GregorianCalendar(2018, Calendar.JANUARY, 1).getTimeInMillis();
+        final long to = new GregorianCalendar(2021, Calendar.JANUARY, 1).getTimeInMillis();
+        int samples = 0, disagreements = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            RandomRecurrence recurrence = new RandomRecurrence(random);
+            RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(recurrence.getValiditySchedule()).validate(new ArrayList<ValidationFailureDetails>());
+            RangerValidityScheduleEvaluator calendarEvaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+            RangerValidityScheduleEvaluator epochEvaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+            RangerValidityScheduleEvaluator scheduledDaysEvaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.SCHEDULED_DAYS);
+
+            for (int j = 0; j < 20; j++) {
+                long time = from + random.nextInt((int) ((to - from) / (60 * 1000L))) * 60 * 1000L + 30 * 1000L;
+
+                if (defaultTZ.getOffset(time) != defaultTZ.getOffset(time - (recurrence.intervalInMinutes + 2 * 24 * 60) * 60 * 1000L)) {
+                    continue; // local minutes repeat or are skipped across DST transitions
+                }
+                long localMinute = Math.floorDiv(time + defaultTZ.getOffset(time), 60 * 1000L);
+                boolean isApplicable = recurrence.isApplicableInMinute(localMinute);
+                boolean isCalendarApplicable = calendarEvaluator.evaluate(time);
+                String message = "recurrence:[" + recurrence + "], time:[" + new Date(time) + "]";
+
+                samples++;
+                assertEquals(message, isCalendarApplicable, epochEvaluator.evaluate(time));
+                assertEquals(message, isApplicable, scheduledDaysEvaluator.evaluate(time));
+                if (isCalendarApplicable != isApplicable) {
+                    // only where the dayOfMonth search ignores the day borrowed by the hour lookup, or month and year are filled out
+                    assertTrue(message, (recurrence.daysOfMonth != null && recurrence.isHourBorrowed(localMinute)) || !recurrence.isEveryMonthAndYear());
+                    disagreements++;
+                }
+            }
+        }
+        assertTrue(samples > 15000);
+        assertTrue("disagreements:[" + disagreements + "], samples:[" + samples + "]", disagreements > 0 && disagreements * 100 < samples * 3);
+    }
+
+    public void testNextTransitionOfRandomSchedules() {
+        final Random random = new Random(20180704L);
+        final long from = new GregorianCalendar(2018, Calendar.JUNE, 1).getTimeInMillis();
+        final long window = 2 * 24 * 60 * 60 * 1000L;
+        RangerValidityScheduleEvaluator.EvaluationEngine[] engines = { RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC };
+
+        for (int i = 0; i < 40; i++) {
+            RandomRecurrence recurrence = new RandomRecurrence(random);
+            RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(recurrence.getValiditySchedule()).validate(new ArrayList<ValidationFailureDetails>());
+            long start = from + random.nextInt(80 * 24 * 60) * 60 * 1000L + 30 * 1000L; // June to August, away from DST transitions
+
+            for (RangerValidityScheduleEvaluator.EvaluationEngine engine : engines) {
+                RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(validatedSchedule, engine);
+                long sample = start;
+
+                for (long time = start; time < start + window; ) {
+                    RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(time);
+                    String message = "recurrence:[" + recurrence + "], engine:[" + engine + "], time:[" + new Date(time) + "], transition:[" + transition + "]";
+
+                    // applicability holds in every minute up to the transition, and changes within the first second of its minute
+                    for (; sample < transition.getTime() && sample < start + window; sample += 60 * 1000L) {
+                        assertEquals(message + ", sample:[" + new Date(sample) + "]", transition.isApplicable(), evaluator.evaluate(sample));
+                    }
+                    if (transition.getTime() < start + window) {
+                        long minuteStart = transition.getTime() - Math.floorMod(transition.getTime(), 60 * 1000L);
+                        boolean isChanged = evaluator.evaluate(minuteStart + 1000L) != transition.isApplicable();
+
+                        if (engine != RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR) {
+                            isChanged = isChanged || evaluator.evaluate(transition.getTime()) != transition.isApplicable() || evaluator.evaluate(minuteStart + 999L) != transition.isApplicable();
+                        }
+                        assertTrue(message, isChanged);
+                    }
+                    time = transition.getTime();
+                }
+            }
+        }
+    }
+
+    public void testZoneOffsetTable() {
+        Random random = new Random(20180311L);
+        long from = new GregorianCalendar(1950, Calendar.JANUARY, 1).getTimeInMillis();
+        long to = new GregorianCalendar(2101, Calendar.JANUARY, 1).getTimeInMillis();
+
+        for (String timeZoneId : new String[] { "America/Los_Angeles", "Europe/London", "Asia/Kolkata", "Australia/Lord_Howe", "GMT", "PST" }) {
+            TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+            ZoneOffsetTable zoneOffsets = ZoneOffsetTable.getAdjustmentOffsets(timeZoneId);
+
+            for (int i = 0; i < 10000; i++) {
+                long time = from + (long) (random.nextDouble() * (to - from));
+                assertEquals("timeZone:[" + timeZoneId + "], time:[" + time + "]", RangerValiditySchedule.getAdjustedTime(time, timeZone), zoneOffsets.getAdjustedTime(time));
+            }
+            for (long time = new GregorianCalendar(2018, Calendar.JANUARY, 1).getTimeInMillis(); time < new GregorianCalendar(2019, Calendar.JANUARY, 1).getTimeInMillis(); time += 15 * 60 * 1000L) {
+                assertEquals("timeZone:[" + timeZoneId + "], time:[" + time + "]", RangerValiditySchedule.getAdjustedTime(time, timeZone), zoneOffsets.getAdjustedTime(time));
+                assertEquals("timeZone:[" + timeZoneId + "], time:[" + (time - 1) + "]", RangerValiditySchedule.getAdjustedTime(time - 1, timeZone), zoneOffsets.getAdjustedTime(time - 1));
+            }
+        }
+
+        TimeZone defaultTZ = TimeZone.getDefault();
+        for (int i = 0; i < 10000; i++) {
+            long time = from + (long) (random.nextDouble() * (to - from));
+            assertEquals(defaultTZ.getOffset(time), ZoneOffsetTable.getDefaultZoneOffsets().getOffset(time));
+        }
+    }
+
+    public void testCompiledRecurrenceSchedule() {
+        CompiledRecurrenceSchedule compiled = CompiledRecurrenceSchedule.compile(new RangerValidityRecurrence.RecurrenceSchedule("30, 0,15", "9-17", " ", "2-3,5-7", "12, 1", "2018-2020,2019-2021"));
+
+        CompiledRecurrenceSchedule.CompiledField minute = compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute);
+        assertTrue(minute.isValid());
+        assertEquals("0,15,30", minute.getNormalizedValue());
+        assertEquals("15", minute.getPeriodEstimate());
+        assertTrue(minute.getMask().isMatch(15) && !minute.getMask().isMatch(16));
+
+        CompiledRecurrenceSchedule.CompiledField dayOfMonth = compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfMonth);
+        assertTrue(dayOfMonth.isBlank() && dayOfMonth.isValid() && dayOfMonth.getMask().isEmpty());
+        assertNull(dayOfMonth.getNormalizedValue());
+
+        // months are validated as 1 to 12, and compiled to Calendar months
+        CompiledRecurrenceSchedule.CompiledField month = compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month);
+        assertTrue(month.isValid());
+        assertEquals("1", month.getPeriodEstimate()); // December to January
+        assertTrue(month.getMask().isMatch(Calendar.JANUARY) && month.getMask().isMatch(Calendar.DECEMBER));
+
+        assertEquals(Collections.singletonList("overlapping range value"), compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.dayOfWeek).getFailures());
+        assertEquals(Collections.singletonList("overlapping range value"), compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.year).getFailures());
+        assertEquals("*", compiled.getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour).getPeriodEstimate());
+
+        CompiledRecurrenceSchedule.CompiledField hour = CompiledRecurrenceSchedule.compile(new RangerValidityRecurrence.RecurrenceSchedule("", "-3,5-2,7*", "", "", "", "")).getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.hour);
+        assertEquals(Arrays.asList("incorrect range spec"), hour.getFailures());
+        assertNotNull(hour.getFormatException());
+        assertFalse(hour.isValid());
+        assertTrue(CompiledRecurrenceSchedule.compile(new RangerValidityRecurrence.RecurrenceSchedule("x", "", "", "", "", "")).getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute).hasInvalidCharacters());
+
+        // the evaluator of a validated schedule takes the masks the validator compiled, unless the schedule changed since
+        RangerValiditySchedule validitySchedule = new RangerValiditySchedule("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("30, 0,15", "9-17", "*", "", "*", "*"),
+                        new RangerValidityRecurrence.ValidityInterval(0, 1, 0, null))));
+        RangerValiditySchedule normalizedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+        RangerValidityRecurrence normalizedRecurrence = normalizedSchedule.getRecurrences().get(0);
+        ScheduledTimeMask validatedMinutes = normalizedRecurrence.getCompiledSchedule().getField(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute).getMask();
+
+        assertNull(validitySchedule.getRecurrences().get(0).getCompiledSchedule());
+        assertSame(validatedMinutes, new RangerValidityScheduleEvaluator(normalizedSchedule).recurrenceEvaluators.get(0).getMask(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute));
+
+        normalizedRecurrence.getSchedule().setMinute("45");
+
+        ScheduledTimeMask changedMinutes = new RangerValidityScheduleEvaluator(normalizedSchedule).recurrenceEvaluators.get(0).getMask(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.minute);
+
+        assertTrue(changedMinutes.isMatch(45) && !changedMinutes.isMatch(15));
+        assertFalse(new Gson().toJson(normalizedRecurrence).contains("compiledSchedule"));
+    }
+
+    public void testCompiledRecurrenceScheduleMatchesLegacyValidator() {
+        final Random random = new Random(20181220L);
+
+        for (int i = 0; i < 200000; i++) {
+            RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field = RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.values()[random.nextInt(6)];
+            String value = getRandomFieldValue(random, field);
+            RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule();
+
+            schedule.setFieldValue(field, value);
+
+            CompiledRecurrenceSchedule.CompiledField compiled = CompiledRecurrenceSchedule.compile(schedule).getField(field);
+            LegacyFieldValidator legacy = new LegacyFieldValidator(field, value);
+            String message = field + ":[" + value + "]";
+
+            assertEquals(message, legacy.hasInvalidCharacters, compiled.hasInvalidCharacters());
+            assertEquals(message, legacy.failures, compiled.getFailures());
+            assertEquals(message, legacy.isValid, compiled.isValid());
+            assertEquals(message, legacy.formatException == null ? null : legacy.formatException.getMessage(), compiled.getFormatException() == null ? null : compiled.getFormatException().getMessage());
+            assertEquals(message, legacy.periodEstimate, compiled.getPeriodEstimate());
+            assertEquals(message, legacy.normalizedValue, compiled.getNormalizedValue());
+        }
+    }
+
+    public void testBulkValidation() throws Exception {
+        List<RangerValiditySchedule> schedules = new ArrayList<>();
+
+        for (String testFileName : new String[] { "/validity-schedules-invalid.json", "/validity-schedules-valid.json", "/validity-schedules-valid-and-applicable.json" }) {
+            for (TestCase testCase : getTestCases(testFileName)) {
+                schedules.addAll(testCase.validitySchedules);
+            }
+        }
+        while (schedules.size() < 10 * ValidityScheduleBulkValidator.MIN_CHUNK_SIZE) {
+            schedules.addAll(new ArrayList<>(schedules));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            ValidityScheduleBulkValidator.BulkValidationResult result = new ValidityScheduleBulkValidator(executor, 4, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR).validate(schedules);
+            int[] failureScheduleIndices = result.getFailureScheduleIndices();
+            int failureIndex = 0;
+
+            assertEquals(schedules.size(), result.size());
+            assertFalse(result.isValid());
+
+            for (int i = 0; i < schedules.size(); i++) {
+                List<ValidationFailureDetails> validationFailures = new ArrayList<>();
+                RangerValiditySchedule expected = new RangerValidityScheduleValidator(schedules.get(i)).validate(validationFailures);
+
+                assertEquals(String.valueOf(expected), String.valueOf(result.getNormalizedSchedule(i)));
+                assertEquals(expected != null, result.getEvaluator(i) != null);
+                assertEquals(validationFailures.toString(), result.getValidationFailures(i).toString());
+
+                for (ValidationFailureDetails validationFailure : validationFailures) {
+                    assertEquals(i, failureScheduleIndices[failureIndex]);
+                    assertEquals(validationFailure.toString(), result.getValidationFailures().get(failureIndex).toString());
+                    failureIndex++;
+                }
+            }
+            assertEquals(failureIndex, result.getValidationFailures().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testJsonLoader() throws Exception {
+        final List<RangerValiditySchedule> schedules = new ArrayList<>();
+
+        for (String testFileName : new String[] { "/validity-schedules-invalid.json", "/validity-schedules-valid-and-applicable.json" }) {
+            for (TestCase testCase : getTestCases(testFileName)) {
+                schedules.addAll(testCase.validitySchedules);
+            }
+        }
+
+        final ValidityScheduleEvaluatorCache evaluatorCache = new ValidityScheduleEvaluatorCache();
+        final List<Object> loaded = new ArrayList<>();
+        int count = new ValidityScheduleJsonLoader(evaluatorCache).load(new StringReader(gson.toJson(schedules)), new ValidityScheduleJsonLoader.ScheduleHandler() {
+            @Override
+            public void onValidSchedule(int index, RangerValidityScheduleEvaluator evaluator) {
+                assertEquals(loaded.size(), index);
+                loaded.add(evaluator);
+            }
+
+            @Override
+            public void onInvalidSchedule(int index, List<ValidationFailureDetails> validationFailures) {
+                assertEquals(loaded.size(), index);
+                loaded.add(validationFailures.toString());
+            }
+        });
+
+        assertEquals(schedules.size(), count);
+        for (int i = 0; i < schedules.size(); i++) {
+            List<ValidationFailureDetails> validationFailures = new ArrayList<>();
+            RangerValiditySchedule normalizedSchedule = new RangerValidityScheduleValidator(schedules.get(i)).validate(validationFailures);
+
+            if (normalizedSchedule != null) {
+                assertSame(evaluatorCache.getEvaluator(normalizedSchedule), loaded.get(i));
+            } else {
+                assertEquals(validationFailures.toString(), loaded.get(i));
+            }
+        }
+
+        String json = "[ { \"startTime\": \"20180101-00:00\", \"endTime\": \"20190101-00:00\", \"policyId\": { \"id\": [ 1 ] },"
+                + " \"recurrences\": [ { \"schedule\": { \"minute\": \"0\", \"hour\": 9, \"dayOfMonth\": \"*\", \"dayOfWeek\": null, \"month\": \"*\", \"year\": \"*\" },"
+                + " \"interval\": { \"hours\": 8 } } ] }, null ]";
+        final List<RangerValidityScheduleEvaluator> evaluators = new ArrayList<>();
+        final List<Integer> invalidIndices = new ArrayList<>();
+
+        new ValidityScheduleJsonLoader().load(new ByteArrayInputStream(json.getBytes("UTF-8")), new ValidityScheduleJsonLoader.ScheduleHandler() {
+            @Override
+            public void onValidSchedule(int index, RangerValidityScheduleEvaluator evaluator) {
+                evaluators.add(evaluator);
+            }
+
+            @Override
+            public void onInvalidSchedule(int index, List<ValidationFailureDetails> validationFailures) {
+                invalidIndices.add(index);
+            }
+        });
+
+        assertEquals(1, evaluators.size());
+        assertEquals(Collections.singletonList(1), invalidIndices);
+        assertTrue(evaluators.get(0).isApplicable(new GregorianCalendar(2018, Calendar.MAY, 16, 10, 0).getTimeInMillis()));
+        assertFalse(evaluators.get(0).isApplicable(new GregorianCalendar(2018, Calendar.MAY, 16, 18, 0).getTimeInMillis()));
+
+        ValidityScheduleJsonLoader.ScheduleHandler collector = new ValidityScheduleJsonLoader.ScheduleHandler() {
+            @Override
+            public void onValidSchedule(int index, RangerValidityScheduleEvaluator evaluator) {
+                evaluators.add(evaluator);
+            }
+
+            @Override
+            public void onInvalidSchedule(int index, List<ValidationFailureDetails> validationFailures) {
+                invalidIndices.add(index);
+            }
+        };
+
+        for (String hours : new String[] { "\"8\"", "\" 8 \"" }) {
+            evaluators.clear();
+            new ValidityScheduleJsonLoader().load(new StringReader(json.replace("\"hours\": 8", "\"hours\": " + hours)), collector);
+
+            assertEquals(hours, 1, evaluators.size());
+            assertTrue(hours, evaluators.get(0).isApplicable(new GregorianCalendar(2018, Calendar.MAY, 16, 10, 0).getTimeInMillis()));
+            assertFalse(hours, evaluators.get(0).isApplicable(new GregorianCalendar(2018, Calendar.MAY, 16, 18, 0).getTimeInMillis()));
+        }
+
+        for (String hours : new String[] { "\"8h\"", "\"\"", "8.5", "true", "[ 8 ]", "2147483648" }) {
+            evaluators.clear();
+            try {
+                new ValidityScheduleJsonLoader().load(new StringReader(json.replace("\"hours\": 8", "\"hours\": " + hours)), collector);
+                fail("Malformed interval accepted:[" + hours + "]");
+            } catch (JsonParseException exception) {
+                assertTrue(hours, evaluators.isEmpty());
+            }
+        }
+    }
+
+    public void testSnapshot() throws Exception {
+        List<RangerValidityScheduleEvaluator> evaluators = new ArrayList<>();
+
+        for (ScheduleFixture fixture : getScheduleFixtures()) {
+            evaluators.add(new RangerValidityScheduleEvaluator(fixture.validatedSchedule));
+        }
+
+        Path file = Files.createTempFile("validity-schedules", ".snapshot");
+        long window = 2 * 24 * 60 * 60 * 1000L;
+
+        try {
+            ValidityScheduleSnapshot.write(evaluators, file);
+
+            for (RangerValidityScheduleEvaluator.EvaluationEngine engine : RangerValidityScheduleEvaluator.EvaluationEngine.values()) {
+                ValidityScheduleSnapshot snapshot = ValidityScheduleSnapshot.open(file, engine);
+
+                assertEquals(evaluators.size(), snapshot.size());
+                assertAgreesWithEvaluate(engine, -window + 2345, window, 23 * 60 * 1000L + 999, fixture -> {
+                    assertSame(snapshot.getEvaluator(fixture.index), snapshot.getEvaluator(fixture.index));
+
+                    return snapshot.getEvaluator(fixture.index)::evaluate;
+                });
+            }
+
+            // zone index, first recurrence and recurrence count of the last schedule record, out of range
+            byte[] bytes = Files.readAllBytes(file);
+            int recordOffset = ByteBuffer.wrap(bytes).getInt(20) + (evaluators.size() - 1) * 32;
+            int[][] corruptions = { { 16, 1000 }, { 16, -2 }, { 20, -1 }, { 20, ByteBuffer.wrap(bytes).getInt(16) }, { 24, -1 }, { 24, Integer.MAX_VALUE } };
+
+            for (int[] corruption : corruptions) {
+                ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+
+                corrupt.putInt(recordOffset + corruption[0], corruption[1]);
+                Files.write(file, corrupt.array());
+                try {
+                    ValidityScheduleSnapshot.open(file);
+                    fail("expected an IOException for a corrupt schedule record:" + Arrays.toString(corruption));
+                } catch (IOException expected) {
+                    // expected
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        Files.write(file, new byte[] { 1, 2, 3 });
+        try {
+            ValidityScheduleSnapshot.open(file);
+            fail("expected an IOException for a file that is not a snapshot");
+        } catch (IOException expected) {
+            // expected
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testTimeline() throws Exception {
+        final long horizon = 3 * 24 * 60 * 60 * 1000L;
+
+        // the timeline starts half the horizon before the access time; lookups go a quarter of the horizon beyond either end
+        assertAgreesWithEvaluate(RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC, -horizon / 2 - horizon / 4 + 3456, horizon / 2 + horizon / 4, 11 * 60 * 1000L + 1357, fixture -> {
+            ValidityScheduleTimeline timeline = new ValidityScheduleTimeline(new RangerValidityScheduleEvaluator(fixture.validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC), horizon);
+            long from = fixture.accessTime - horizon / 2;
+
+            timeline.extend(from);
+            assertEquals(from, timeline.getFrom());
+            assertEquals(from + horizon, timeline.getTo());
+
+            return timeline::isApplicable;
+        });
+
+        RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(getTestCases("/validity-schedules-valid-and-applicable.json").get(0).validitySchedules.get(0));
+        ValidityScheduleTimeline timeline = new ValidityScheduleTimeline(evaluator, 60 * 60 * 1000L);
+        long startTime = System.currentTimeMillis();
+
+        timeline.startExtending();
+        try {
+            for (int i = 0; i < 100 && timeline.getTo() == Long.MIN_VALUE; i++) {
+                Thread.sleep(50);
+            }
+        } finally {
+            timeline.stopExtending();
+        }
+        assertTrue(timeline.getFrom() >= startTime);
+        assertEquals(timeline.getFrom() + 60 * 60 * 1000L, timeline.getTo());
+    }
+
+    public void testTimelineStore() throws Exception {
+        List<ScheduleFixture> fixtures = getScheduleFixtures();
+        List<RangerValidityScheduleEvaluator> evaluators = new ArrayList<>();
+        long horizon = 3 * 24 * 60 * 60 * 1000L;
+
+        for (ScheduleFixture fixture : fixtures) {
+            evaluators.add(new RangerValidityScheduleEvaluator(fixture.validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC));
+        }
+
+        Path file = Files.createTempFile("validity-schedule-timelines", ".store");
+
+        try {
+            ValidityScheduleTimelineStore[] stores = new ValidityScheduleTimelineStore[] {
+                    ValidityScheduleTimelineStore.allocate(evaluators.size(), 64, horizon),
+                    ValidityScheduleTimelineStore.map(file, evaluators.size(), 64, horizon) };
+
+            for (ValidityScheduleTimelineStore store : stores) {
+                for (ScheduleFixture fixture : fixtures) {
+                    long from = fixture.accessTime - horizon / 2;
+
+                    assertEquals(ValidityScheduleTimelineStore.UNKNOWN, store.lookup(fixture.index, fixture.accessTime));
+                    assertEquals(from + horizon, store.regenerate(fixture.index, evaluators.get(fixture.index), from));
+                }
+                assertAgreesWithEvaluate(RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC, -horizon / 2 + 4567, horizon / 2, 13 * 60 * 1000L + 2468, fixture -> {
+                    long from = fixture.accessTime - horizon / 2;
+
+                    assertEquals(ValidityScheduleTimelineStore.UNKNOWN, store.lookup(fixture.index, from - 1));
+                    assertEquals(ValidityScheduleTimelineStore.UNKNOWN, store.lookup(fixture.index, from + horizon));
+
+                    return time -> {
+                        int lookup = store.lookup(fixture.index, time);
+
+                        assertTrue(lookup != ValidityScheduleTimelineStore.UNKNOWN);
+                        return lookup == ValidityScheduleTimelineStore.APPLICABLE;
+                    };
+                });
+                store.clear(0);
+                assertEquals(ValidityScheduleTimelineStore.UNKNOWN, store.lookup(0, fixtures.get(0).accessTime));
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        // daily 9:00-17:00 over 3 days has 3 intervals; with room for 2, the timeline ends at the start of the third
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20180201-00:00", null, recurrences);
+        ValidityScheduleTimelineStore store = ValidityScheduleTimelineStore.allocate(1, 2, horizon);
+        long from = new GregorianCalendar(2018, Calendar.JANUARY, 10).getTimeInMillis();
+        long to = store.regenerate(0, evaluator, from);
+
+        // precise to the minute, as nextTransition() is
+        assertTrue(to >= new GregorianCalendar(2018, Calendar.JANUARY, 12, 9, 0).getTimeInMillis());
+        assertTrue(to <= new GregorianCalendar(2018, Calendar.JANUARY, 12, 9, 0, 1).getTimeInMillis());
+        assertEquals(ValidityScheduleTimelineStore.APPLICABLE, store.lookup(0, new GregorianCalendar(2018, Calendar.JANUARY, 11, 16, 59).getTimeInMillis()));
+        assertEquals(ValidityScheduleTimelineStore.NOT_APPLICABLE, store.lookup(0, to - 1));
+        assertEquals(ValidityScheduleTimelineStore.UNKNOWN, store.lookup(0, to));
+    }
+
+    public void testRegistry() throws Exception {
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        final RangerValidityScheduleEvaluator daytime = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", null, recurrences);
+        final RangerValidityScheduleEvaluator year2018 = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", null, new ArrayList<RangerValidityRecurrence>());
+        long evening = new GregorianCalendar(2018, Calendar.MAY, 16, 20, 0).getTimeInMillis();
+
+        ValidityScheduleRegistry registry = new ValidityScheduleRegistry();
+        ValidityScheduleRegistry.Snapshot empty = registry.getSnapshot();
+
+        registry.update(new ValidityScheduleRegistry.Update().put(1, daytime).put(2, year2018).put(3, daytime).remove(3));
+
+        ValidityScheduleRegistry.Snapshot pinned = registry.getSnapshot();
+
+        assertEquals(0, empty.size());
+        assertEquals(1, pinned.getVersion());
+        assertEquals(2, pinned.size());
+        assertFalse(pinned.isApplicable(1, evening));
+        assertTrue(pinned.isApplicable(2, evening));
+
+        registry.update(new ValidityScheduleRegistry.Update().put(1, year2018).remove(2));
+
+        assertEquals(2, registry.getVersion());
+        assertTrue(registry.getSnapshot().isApplicable(1, evening));
+        assertNull(registry.getEvaluator(2));
+        assertSame(daytime, pinned.getEvaluator(1)); // a pinned snapshot does not change
+
+        // unknown and removed policy ids are not applicable; a policy without a schedule is registered as such
+        registry.put(4, ValidityScheduleRegistry.ALWAYS_APPLICABLE);
+
+        assertFalse(registry.getSnapshot().isApplicable(2, evening));
+        assertFalse(registry.getSnapshot().isApplicable(99, evening));
+        assertFalse(empty.isApplicable(1, evening));
+        for (long time : new long[] { evening, 0L, System.currentTimeMillis(), new GregorianCalendar(2500, Calendar.JANUARY, 1).getTimeInMillis() }) {
+            assertTrue(registry.getSnapshot().isApplicable(4, time));
+        }
+        assertSame(year2018, pinned.getEvaluator(2));
+
+        // concurrent updates are all applied, each in its own version
+        final ValidityScheduleRegistry concurrentRegistry = new ValidityScheduleRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    concurrentRegistry.put(thread * 1000 + i, i % 2 == 0 ? daytime : year2018);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(1000, concurrentRegistry.getVersion());
+        assertEquals(1000, concurrentRegistry.getSnapshot().size());
+    }
+
+    public void testConcurrentEvaluation() throws Exception {
+        final List<ScheduleFixture> fixtures = getScheduleFixtures();
+        final RangerValidityScheduleEvaluator.EvaluationEngine[] engines = RangerValidityScheduleEvaluator.EvaluationEngine.values();
+        final RangerValidityScheduleEvaluator[][] sharedEvaluators = new RangerValidityScheduleEvaluator[fixtures.size()][engines.length];
+        final long window = 3 * 24 * 60 * 60 * 1000L;
+
+        for (ScheduleFixture fixture : fixtures) {
+            for (RangerValidityScheduleEvaluator.EvaluationEngine engine : engines) {
+                sharedEvaluators[fixture.index][engine.ordinal()] = new RangerValidityScheduleEvaluator(fixture.validatedSchedule, engine);
+            }
+        }
+
+        final int threadCount = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+
+            futures.add(executor.submit(() -> {
+                barrier.await();
+
+                for (int round = 0; round < 5; round++) {
+                    // threads start at different offsets, so that they keep replacing each other's remembered window
+                    long offset = (thread * 53 + round * 17) * 60 * 1000L + 4321;
+
+                    for (RangerValidityScheduleEvaluator.EvaluationEngine engine : engines) {
+                        Map<Integer, List<Long>> times = new HashMap<>();
+                        Map<Integer, BitSet> results = new HashMap<>();
+
+                        assertAgreesWithEvaluate(engine, -window + offset, window, 41 * 60 * 1000L + 977, fixture -> {
+                            RangerValidityScheduleEvaluator evaluator = sharedEvaluators[fixture.index][engine.ordinal()];
+                            List<Long> scheduleTimes = new ArrayList<>();
+                            BitSet scheduleResults = new BitSet();
+
+                            times.put(fixture.index, scheduleTimes);
+                            results.put(fixture.index, scheduleResults);
+
+                            return time -> {
+                                boolean result = evaluator.isApplicable(time);
+
+                                scheduleResults.set(scheduleTimes.size(), result);
+                                scheduleTimes.add(time);
+                                return result;
+                            };
+                        });
+                        for (ScheduleFixture fixture : fixtures) {
+                            long[] scheduleTimes = times.get(fixture.index).stream().mapToLong(Long::longValue).toArray();
+                            BitSet batch = new BitSet();
+
+                            sharedEvaluators[fixture.index][engine.ordinal()].isApplicable(scheduleTimes, batch);
+                            assertEquals("testCase:[" + fixture.testCaseName + "], engine:[" + engine + "]", results.get(fixture.index), batch);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testMinuteMemo() {
+        long window = 2 * 24 * 60 * 60 * 1000L;
+
+        assertAgreesWithEvaluate(RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC, -window + 321, window, 7 * 60 * 1000L + 19 * 1000L + 1, fixture -> {
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(fixture.validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+            RangerValidityScheduleEvaluator memoized = evaluator.withMinuteMemo();
+            AtomicInteger count = new AtomicInteger();
+
+            assertFalse(evaluator.isMinuteMemoEnabled());
+            assertTrue(memoized.isMinuteMemoEnabled());
+            assertSame(memoized, memoized.withMinuteMemo());
+
+            // several calls per minute, including in its first second, and every third one going back a minute
+            return time -> {
+                long minuteStart = time - Math.floorMod(time, 60 * 1000L);
+
+                for (long accessTime : new long[] { minuteStart + 500, minuteStart + 59999, count.getAndIncrement() % 3 == 2 ? time - 60 * 1000L : time }) {
+                    assertEquals("testCase:[" + fixture.testCaseName + "], time:[" + new Date(accessTime) + "]", evaluator.isApplicable(accessTime), memoized.isApplicable(accessTime));
+                }
+                return memoized.isApplicable(time);
+            };
+        });
+    }
+
+    public void testTimerWheel() {
+        final List<String> events = new ArrayList<>();
+        ValidityScheduleTimerWheel.TransitionListener listener = new ValidityScheduleTimerWheel.TransitionListener() {
+            @Override
+            public void onTransition(long scheduleId, boolean isApplicable, long time) {
+                events.add(scheduleId + ":" + isApplicable + "@" + new Date(time));
+            }
+        };
+        ValidityScheduleTimerWheel wheel = new ValidityScheduleTimerWheel(listener, Runnable::run, 60 * 1000L, 64);
+
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        RangerValidityScheduleEvaluator daytime = new RangerValidityScheduleEvaluator("20180101-00:00", "20180113-00:00", null, recurrences);
+
+        assertFalse(wheel.register(7, daytime, new GregorianCalendar(2018, Calendar.JANUARY, 10, 8, 0, 30).getTimeInMillis()));
+        assertEquals(0, wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 10, 8, 59, 59).getTimeInMillis()));
+        assertEquals(1, wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 10, 9, 0, 0).getTimeInMillis()));
+        assertEquals(1, wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0, 5).getTimeInMillis()));
+
+        // catching up over several days fires every transition in between, in order; none after endTime
+        assertEquals(4, wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 20).getTimeInMillis()));
+        assertEquals(Arrays.asList("7:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 10, 9, 0).getTime(),
+                                   "7:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0).getTime(),
+                                   "7:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 11, 9, 0).getTime(),
+                                   "7:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 11, 17, 0).getTime(),
+                                   "7:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 12, 9, 0).getTime(),
+                                   "7:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 12, 17, 0).getTime()), events);
+        assertEquals(0, wheel.size());
+
+        // a first advance, several ticks after registration, fires every transition since registration, in order
+        events.clear();
+        ValidityScheduleTimerWheel lateWheel = new ValidityScheduleTimerWheel(listener, Runnable::run, 60 * 1000L, 64);
+
+        assertFalse(lateWheel.register(7, daytime, new GregorianCalendar(2018, Calendar.JANUARY, 10, 8, 0, 30).getTimeInMillis()));
+        assertEquals(4, lateWheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 12, 0, 0).getTimeInMillis()));
+        assertEquals(Arrays.asList("7:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 10, 9, 0).getTime(),
+                                   "7:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0).getTime(),
+                                   "7:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 11, 9, 0).getTime(),
+                                   "7:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 11, 17, 0).getTime()), events);
+
+        // unregistered schedules fire no more
+        events.clear();
+        wheel.register(8, daytime, new GregorianCalendar(2018, Calendar.JANUARY, 5, 12, 0).getTimeInMillis());
+        wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 5, 12, 0).getTimeInMillis());
+        assertTrue(wheel.unregister(8));
+        assertEquals(0, wheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 7).getTimeInMillis()));
+        assertTrue(events.isEmpty());
+
+        // ticks with nothing due are skipped, not stepped through: days of millisecond ticks, then an empty wheel
+        events.clear();
+        ValidityScheduleTimerWheel fineWheel = new ValidityScheduleTimerWheel(listener, Runnable::run, 1L, 64);
+
+        assertFalse(fineWheel.register(9, daytime, new GregorianCalendar(2018, Calendar.JANUARY, 10, 8, 0, 30).getTimeInMillis()));
+        assertEquals(4, fineWheel.advance(new GregorianCalendar(2018, Calendar.JANUARY, 12, 0, 0).getTimeInMillis()));
+        assertEquals(2, fineWheel.advance(Long.MAX_VALUE / 2));
+        assertEquals(0, fineWheel.advance(Long.MAX_VALUE - 1));
+        assertEquals(0, fineWheel.size());
+        assertEquals(6, events.size());
+        assertEquals("9:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 12, 17, 0).getTime(), events.get(5));
+
+        // applicability tracked from the events agrees with the evaluator, minute by minute
+        long window = 2 * 24 * 60 * 60 * 1000L;
+
+        for (TestCase testCase : getTestCases("/validity-schedules-valid-and-applicable.json")) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                final RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(validatedSchedule, RangerValidityScheduleEvaluator.EvaluationEngine.EPOCH_ARITHMETIC);
+                final boolean[] state = new boolean[1];
+                ValidityScheduleTimerWheel fixtureWheel = new ValidityScheduleTimerWheel(new ValidityScheduleTimerWheel.TransitionListener() {
+                    @Override
+                    public void onTransition(long scheduleId, boolean isApplicable, long time) {
+                        assertTrue(isApplicable != state[0]);
+                        state[0] = isApplicable;
+                    }
+                }, Runnable::run);
+                long from = testCase.accessTime.getTime() - window;
+
+                from -= from % (60 * 1000L);
+                state[0] = fixtureWheel.register(1, evaluator, from + 1000L);
+
+                for (long minute = from; minute < from + 2 * window; minute += 60 * 1000L) {
+                    fixtureWheel.advance(minute);
+                    assertEquals("testCase:[" + testCase.name + "], time:[" + new Date(minute) + "]", evaluator.evaluate(minute + 1000L), state[0]);
+                }
+            }
+        }
+    }
+
+    public void testStatePublisher() throws Exception {
+        RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+        List<RangerValidityRecurrence> recurrences = new ArrayList<>();
+        recurrences.add(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+        RangerValidityScheduleEvaluator daytime = new RangerValidityScheduleEvaluator("20180101-00:00", "20190101-00:00", null, recurrences);
+        RangerValidityScheduleEvaluator january = new RangerValidityScheduleEvaluator("20180101-00:00", "20180110-12:00", null, new ArrayList<RangerValidityRecurrence>());
+
+        final List<String> fast = new ArrayList<>();
+        final List<String> slow = new ArrayList<>();
+        final ValidityScheduleFlow.Subscription[] slowSubscription = new ValidityScheduleFlow.Subscription[1];
+        ValidityScheduleStatePublisher publisher = new ValidityScheduleStatePublisher(Runnable::run);
+
+        publisher.subscribe(new ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange>() {
+            ValidityScheduleFlow.Subscription subscription;
+
+            @Override public void onSubscribe(ValidityScheduleFlow.Subscription subscription) { this.subscription = subscription; subscription.request(1); }
+            @Override public void onNext(ValidityScheduleStatePublisher.StateChange item) { fast.add(item.getScheduleId() + ":" + item.isApplicable()); subscription.request(1); }
+            @Override public void onError(Throwable throwable) { fast.add("error"); }
+            @Override public void onComplete() { fast.add("complete"); }
+        });
+        publisher.subscribe(new ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange>() {
+            @Override public void onSubscribe(ValidityScheduleFlow.Subscription subscription) { slowSubscription[0] = subscription; }
+            @Override public void onNext(ValidityScheduleStatePublisher.StateChange item) { slow.add(item.getScheduleId() + ":" + item.isApplicable() + "@" + new Date(item.getTime())); }
+            @Override public void onError(Throwable throwable) { slow.add("error"); }
+            @Override public void onComplete() { slow.add("complete"); }
+        });
+        assertEquals(2, publisher.getSubscriberCount());
+
+        long start = new GregorianCalendar(2018, Calendar.JANUARY, 9, 12, 0).getTimeInMillis();
+
+        assertTrue(publisher.register(1, daytime, start));
+        assertTrue(publisher.register(2, january, start));
+        assertEquals(5, publisher.advance(new GregorianCalendar(2018, Calendar.JANUARY, 11, 12, 0).getTimeInMillis()));
+
+        // the fast subscriber gets every change; the slow one, which has not requested any, keeps the latest per schedule
+        assertEquals(Arrays.asList("1:false", "1:true", "2:false", "1:false", "1:true"), fast);
+        assertTrue(slow.isEmpty());
+
+        slowSubscription[0].request(1);
+        assertEquals(Collections.singletonList("2:false@" + new GregorianCalendar(2018, Calendar.JANUARY, 10, 12, 0).getTime()), slow);
+        slowSubscription[0].request(Long.MAX_VALUE);
+        slowSubscription[0].request(Long.MAX_VALUE);
+        assertEquals("1:true@" + new GregorianCalendar(2018, Calendar.JANUARY, 11, 9, 0).getTime(), slow.get(1));
+        assertEquals(2, slow.size());
+
+        slowSubscription[0].cancel();
+        assertEquals(1, publisher.getSubscriberCount());
+        publisher.advance(new GregorianCalendar(2018, Calendar.JANUARY, 12, 12, 0).getTimeInMillis());
+        assertEquals(2, slow.size());
+        assertEquals(7, fast.size());
+
+        publisher.close();
+        assertEquals("complete", fast.get(fast.size() - 1));
+        assertEquals(0, publisher.getSubscriberCount());
+
+        // a non-positive request is an error
+        final List<Throwable> errors = new ArrayList<>();
+        new ValidityScheduleStatePublisher(Runnable::run).subscribe(new ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange>() {
+            @Override public void onSubscribe(ValidityScheduleFlow.Subscription subscription) { subscription.request(0); }
+            @Override public void onNext(ValidityScheduleStatePublisher.StateChange item) { }
+            @Override public void onError(Throwable throwable) { errors.add(throwable); }
+            @Override public void onComplete() { }
+        });
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalArgumentException);
+
+        // a subscription whose delivery the executor rejects ends with the rejection, and later drains run again
+        final List<String> rejected = new ArrayList<>();
+        final boolean[] isRejecting = { true };
+        ValidityScheduleStatePublisher rejectingPublisher = new ValidityScheduleStatePublisher(command -> {
+            if (isRejecting[0]) {
+                throw new RejectedExecutionException("rejected");
+            }
+            command.run();
+        });
+        ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange> rejectedSubscriber = new ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange>() {
+            @Override public void onSubscribe(ValidityScheduleFlow.Subscription subscription) { subscription.request(Long.MAX_VALUE); }
+            @Override public void onNext(ValidityScheduleStatePublisher.StateChange item) { rejected.add(String.valueOf(item.getScheduleId())); }
+            @Override public void onError(Throwable throwable) { rejected.add(throwable instanceof RejectedExecutionException ? "rejected" : "error"); }
+            @Override public void onComplete() { rejected.add("complete"); }
+        };
+
+        rejectingPublisher.subscribe(rejectedSubscriber);
+        assertEquals(Collections.singletonList("rejected"), rejected);
+        assertEquals(0, rejectingPublisher.getSubscriberCount());
+
+        isRejecting[0] = false;
+        rejectingPublisher.subscribe(rejectedSubscriber);
+        assertTrue(rejectingPublisher.register(1, daytime, start));
+        rejectingPublisher.advance(new GregorianCalendar(2018, Calendar.JANUARY, 9, 18, 0).getTimeInMillis());
+        rejectingPublisher.close();
+        assertEquals(Arrays.asList("rejected", "1", "complete"), rejected);
+
+        // subscriptions made while closing, or after, are all completed
+        for (int attempt = 0; attempt < 20; attempt++) {
+            final ValidityScheduleStatePublisher closingPublisher = new ValidityScheduleStatePublisher(Runnable::run);
+            final AtomicInteger completions = new AtomicInteger();
+            final int subscriberCount = 200;
+            Thread subscribing = new Thread(() -> {
+                for (int i = 0; i < subscriberCount; i++) {
+                    closingPublisher.subscribe(new ValidityScheduleFlow.Subscriber<ValidityScheduleStatePublisher.StateChange>() {
+                        @Override public void onSubscribe(ValidityScheduleFlow.Subscription subscription) { }
+                        @Override public void onNext(ValidityScheduleStatePublisher.StateChange item) { }
+                        @Override public void onError(Throwable throwable) { }
+                        @Override public void onComplete() { completions.incrementAndGet(); }
+                    });
+                }
+            });
+
+            subscribing.start();
+            closingPublisher.close();
+            subscribing.join();
+            assertEquals(subscriberCount, completions.get());
+            assertEquals(0, closingPublisher.getSubscriberCount());
+        }
+    }
+
+    public void testMetrics() {
+        ValidityScheduleMetrics metrics = ValidityScheduleMetrics.getInstance();
+        RangerValiditySchedule schedule = new RangerValiditySchedule("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "31", "", "*", "*"),
+                        new RangerValidityRecurrence.ValidityInterval(0, 1, 0, null))));
+        long accessTime = new GregorianCalendar(2018, Calendar.MAY, 1, 9, 30).getTimeInMillis();
+
+        metrics.reset();
+        new RangerValidityScheduleEvaluator(schedule).isApplicable(accessTime);
+        assertEquals(0, metrics.snapshot().getCount(ValidityScheduleMetrics.Counter.EVALUATIONS)); // disabled
+
+        metrics.setEnabled(true);
+        try {
+            RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator(schedule);
+
+            for (int i = 0; i < 10; i++) {
+                evaluator.isApplicable(accessTime + i * 1000L);
+            }
+            evaluator.isApplicable(accessTime - 60 * 60 * 1000L); // earlier than the remembered window
+            new RangerValidityScheduleEvaluator("20180101-00:00", "2019-01-01", null, Collections.<RangerValidityRecurrence>emptyList());
+
+            ValidityScheduleMetrics.Snapshot snapshot = metrics.snapshot();
+
+            assertEquals(11, snapshot.getCount(ValidityScheduleMetrics.Counter.EVALUATIONS));
+            assertEquals(9, snapshot.getCount(ValidityScheduleMetrics.Counter.WINDOW_HITS));
+            assertEquals(2, snapshot.getCount(ValidityScheduleMetrics.Counter.WINDOW_MISSES));
+            assertTrue(snapshot.getCount(ValidityScheduleMetrics.Counter.TRANSITION_SEARCH_STEPS) > 0);
+            assertTrue(snapshot.getCount(ValidityScheduleMetrics.Counter.MONTH_BACK_STEPS) > 0); // April has no 31st
+            assertEquals(1, snapshot.getCount(ValidityScheduleMetrics.Counter.PARSE_FAILURES));
+            assertEquals(1, snapshot.getLatency(ValidityScheduleMetrics.Latency.TRANSITION_SEARCH).getCount());
+            assertEquals(2, snapshot.getLatency(ValidityScheduleMetrics.Latency.EVALUATION).getCount());
+            assertEquals(snapshot.getCount(ValidityScheduleMetrics.Counter.EVALUATIONS), metrics.getEvaluations());
+        } finally {
+            metrics.setEnabled(false);
+            metrics.reset();
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertTrue(Math.abs(snapshot.getPercentile(50) - 500) <= 500 / 8);
+        assertTrue(Math.abs(snapshot.getPercentile(99) - 990) <= 990 / 8);
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(i, LatencyHistogram.getBucketIndex(LatencyHistogram.getBucketUpperBound(i)));
+        }
+    }
+
+    // Terms of numbers around the field's bounds and wildcards, with the odd malformed, overflowing or invalid part
+    private static String getRandomFieldValue(Random random, RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field) {
+        final String[] noise = { " ", "-", ",", "*", "x", "--", "99999999999" };
+        final int minimum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.minimum + 1 : field.minimum;
+        final int maximum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.maximum + 1 : field.maximum;
+        StringBuilder sb = new StringBuilder();
+        int termCount = random.nextInt(5);
+
+        for (int i = 0; i < termCount; i++) {
+            int partCount = 1 + random.nextInt(random.nextInt(8) == 0 ? 3 : 2);
+
+            if (i > 0) {
+                sb.append(random.nextInt(8) == 0 ? ", " : ",");
+            }
+            for (int j = 0; j < partCount; j++) {
+                if (j > 0) {
+                    sb.append('-');
+                }
+                if (random.nextInt(6) == 0) {
+                    sb.append(RangerValidityRecurrence.RecurrenceSchedule.WILDCARD);
+                } else {
+                    sb.append(minimum - 2 + random.nextInt(maximum - minimum + 5));
+                }
+                if (random.nextInt(20) == 0) {
+                    sb.append(noise[random.nextInt(noise.length)]);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+    The field checks of RangerValidityScheduleValidator from before CompiledRecurrenceSchedule, validateCharacters(),
+    validateRanges() and getNormalizedValue(), kept as they were to check that compiled fields still agree with them
+     */
+    private static final class LegacyFieldValidator {
+        final List<String>          failures = new ArrayList<>();
+        final boolean               hasInvalidCharacters;
+        boolean                     isValid;
+        NumberFormatException       formatException;
+        String                      periodEstimate;
+        final String                normalizedValue;
+
+        LegacyFieldValidator(RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec field, String fieldValue) {
+            hasInvalidCharacters = !validateCharacters(fieldValue, field.specialChars);
+            if (!hasInvalidCharacters) {
+                int minimum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.minimum + 1 : field.minimum;
+                int maximum = field == RangerValidityRecurrence.RecurrenceSchedule.ScheduleFieldSpec.month ? field.maximum + 1 : field.maximum;
+                try {
+                    isValid = validateRanges(fieldValue, minimum, maximum);
+                } catch (NumberFormatException exception) {
+                    formatException = exception;
+                }
+            }
+            normalizedValue = getNormalizedValue(fieldValue);
+        }
+
+        private boolean validateCharacters(String str, String permittedCharacters) {
+            boolean ret = true;
+            if (StringUtils.isNotBlank(str)) {
+                char[] chars = str.toCharArray();
+                for (char c : chars) {
+                    if (!(Character.isDigit(c) || Character.isWhitespace(c) || StringUtils.contains(permittedCharacters, c))) {
+                        ret = false;
+                        break;
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private boolean validateRanges(String fieldValue, int minValidValue, int maxValidValue) {
+            boolean ret = true;
+
+            String value = null;
+
+            String noWhiteSpace = StringUtils.deleteWhitespace(fieldValue);
+            String[] specs = StringUtils.split(noWhiteSpace, ",");
+
+            List<int[]> rangeOfValues = new ArrayList<>();
+
+            List<Integer> values = new ArrayList<>();
+
+            for (String spec : specs) {
+
+                if (StringUtils.isNotEmpty(spec)) {
+                    // Range
+                    if (spec.startsWith("-") || spec.endsWith("-")) {
+                        failures.add("incorrect range spec");
+                        ret = false;
+                    } else {
+                        String[] ranges = StringUtils.split(spec, "-");
+                        if (ranges.length > 2) {
+                            failures.add("incorrect range spec");
+                            ret = false;
+                        } else if (ranges.length == 2) {
+                            int val1 = minValidValue, val2 = maxValidValue;
+                            if (!StringUtils.equals(ranges[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+                                val1 = Integer.valueOf(ranges[0]);
+                                if (val1 < minValidValue || val1 > maxValidValue) {
+                                    failures.add("incorrect lower range value");
+                                    ret = false;
+                                }
+                            } else {
+                                value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+                            }
+                            if (!StringUtils.equals(ranges[1], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+                                val2 = Integer.valueOf(ranges[1]);
+                                if (val1 < minValidValue || val2 > maxValidValue) {
+                                    failures.add("incorrect upper range value");
+                                    ret = false;
+                                }
+                            } else {
+                                value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+                            }
+                            if (ret) {
+                                if (val1 >= val2) {
+                                    failures.add("incorrect range");
+                                    ret = false;
+                                } else {
+                                    value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+                                    for (int[] range : rangeOfValues) {
+                                        if (range[0] == val1 || range[1] == val2) {
+                                            failures.add("duplicate range");
+                                            ret = false;
+                                            break;
+                                        }
+                                    }
+                                    if (ret) {
+                                        rangeOfValues.add(new int[] { val1, val2 });
+                                    }
+                                }
+                            }
+                        } else if (ranges.length == 1) {
+                            if (!StringUtils.equals(ranges[0], RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+                                int val = Integer.valueOf(ranges[0]);
+                                if (val < minValidValue || val > maxValidValue) {
+                                    failures.add("incorrect value");
+                                    ret = false;
+                                } else {
+                                    if (!StringUtils.equals(value, RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+                                        values.add(Integer.valueOf(ranges[0]));
+                                    }
+                                }
+                            } else {
+                                value = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+                            }
+                        } else {
+                            ret = false;
+                        }
+                    }
+                }
+            }
+            rangeOfValues.sort((me, other) -> me[0] != other[0] ? Integer.compare(me[0], other[0]) : Integer.compare(me[1], other[1]));
+            for (int i = 0; i < rangeOfValues.size(); i++) {
+                int upper = rangeOfValues.get(i)[1];
+                for (int j = i+1; j < rangeOfValues.size(); j++) {
+                    if (upper < rangeOfValues.get(j)[1]) {
+                        failures.add("overlapping range value");
+                        ret = false;
+                    }
+                }
+            }
+            if (ret) {
+                if (!StringUtils.equals(value, RangerValidityRecurrence.RecurrenceSchedule.WILDCARD)) {
+
+                    int minDiff = (values.size() <= 1) ?  maxValidValue + 1 : Integer.MAX_VALUE;
+
+                    if (values.size() > 1) {
+                        Collections.sort(values);
+                        for (int i = 0; i < values.size() - 1; i++) {
+                            int diff = values.get(i + 1) - values.get(i);
+                            if (diff < minDiff) {
+                                minDiff = diff;
+                            }
+                            int firstLastDiff = values.get(0) + (maxValidValue - minValidValue + 1) - values.get(values.size() - 1);
+
+                            if (minDiff > firstLastDiff) {
+                                minDiff = firstLastDiff;
+                            }
+                        }
+                    }
+                    if (values.size() > 0) {
+                        value = Integer.toString(minDiff);
+                    }
+                }
+                periodEstimate = value;
+            }
+            return ret;
+        }
+
+        private String getNormalizedValue(String fieldValue) {
+            String ret = null;
+
+            String noWhiteSpace = StringUtils.deleteWhitespace(fieldValue);
+            String[] specs = StringUtils.split(noWhiteSpace, ",");
+
+            List<String> values = new ArrayList<>();
+
+            for (String spec : specs) {
+                if (StringUtils.isNotBlank(spec)) {
+                    values.add(spec);
+                }
+            }
+            if (values.size() > 0) {
+                Collections.sort(values);
+                ret = StringUtils.join(values, ",");
+            }
+            return ret;
+        }
+    }
+
+    /*
+    Recurrence of random field values, kept as the sets of values they schedule, so that applicability can be found
+    without the evaluator: by the minute and hour lookups of the evaluator, then a day-by-day scan for the closest past
+    scheduled day.
+     */
+    // Run by testNextTransitionInZoneWithoutOffsetChanges(), with a default time-zone that has no offset changes
+    public static final class ZoneWithoutOffsetChangesCheck {
+        public static void main(String[] args) {
+            RangerValidityRecurrence.RecurrenceSchedule schedule = new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", null, "*", "*");
+            List<RangerValidityRecurrence> recurrences = Collections.singletonList(new RangerValidityRecurrence(schedule, new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null)));
+            ValidityScheduleMetrics metrics = ValidityScheduleMetrics.getInstance();
+
+            assertFalse(TimeZone.getDefault().useDaylightTime());
+
+            // without a time-zone, and with one that has no offset changes either
+            for (String timeZone : new String[] { null, "GMT" }) {
+                RangerValidityScheduleEvaluator evaluator = new RangerValidityScheduleEvaluator("20180101-00:00", "20180201-00:00", timeZone, recurrences);
+                long accessTime = new GregorianCalendar(2018, Calendar.JANUARY, 10, 10, 30, 15).getTimeInMillis();
+
+                RangerValidityScheduleEvaluator.Transition transition = evaluator.nextTransition(accessTime);
+                assertTrue(transition.isApplicable());
+                assertEquals("timeZone:[" + timeZone + "]", new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0).getTimeInMillis(), transition.getTime());
+
+                transition = evaluator.nextTransition(new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 30, 15).getTimeInMillis());
+                assertFalse(transition.isApplicable());
+                assertEquals("timeZone:[" + timeZone + "]", new GregorianCalendar(2018, Calendar.JANUARY, 11, 9, 0).getTimeInMillis(), transition.getTime());
+
+                // the remembered window lasts until 17:00
+                metrics.reset();
+                metrics.setEnabled(true);
+                try {
+                    assertTrue(evaluator.isApplicable(accessTime));
+                    assertTrue(evaluator.isApplicable(new GregorianCalendar(2018, Calendar.JANUARY, 10, 16, 59, 30).getTimeInMillis()));
+                    assertFalse(evaluator.isApplicable(new GregorianCalendar(2018, Calendar.JANUARY, 10, 17, 0, 30).getTimeInMillis()));
+                    assertEquals("timeZone:[" + timeZone + "]", 1, metrics.snapshot().getCount(ValidityScheduleMetrics.Counter.WINDOW_HITS));
+                } finally {
+                    metrics.setEnabled(false);
+                }
+            }
+        }
+    }
+
+    private static final class RandomRecurrence {
+        final boolean[] minutes = new boolean[60];
+        final boolean[] hours = new boolean[24];
+        final boolean[] daysOfMonth; // null when not specified
+        final boolean[] daysOfWeek;  // null when not specified
+        final boolean[] months = new boolean[13];
+        final boolean[] years = new boolean[2101];
+        final String[]  fieldValues = new String[6];
+        final RangerValidityRecurrence.ValidityInterval interval;
+        final int       intervalInMinutes;
+        final Calendar  calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+
+        RandomRecurrence(Random random) {
+            int days = random.nextInt(3); // dayOfMonth only, dayOfWeek only, or both
+
+            daysOfMonth = days != 1 ? new boolean[32] : null;
+            daysOfWeek = days != 0 ? new boolean[8] : null;
+
+            fieldValues[0] = getFieldValue(random, minutes, 0, 59, false);
+            fieldValues[1] = getFieldValue(random, hours, 0, 23, true);
+            fieldValues[2] = daysOfMonth != null ? getFieldValue(random, daysOfMonth, 1, 31, true) : null;
+            fieldValues[3] = daysOfWeek != null ? getFieldValue(random, daysOfWeek, 1, 7, true) : null;
+            fieldValues[4] = getFieldValue(random, months, 1, 12, true);
+            fieldValues[5] = getFieldValue(random, years, 2017, 2021, true);
+
+            int intervalDays = random.nextInt(3), intervalHours = random.nextInt(24), intervalMinutes = 1 + random.nextInt(59);
+
+            interval = new RangerValidityRecurrence.ValidityInterval(intervalDays, intervalHours, intervalMinutes, null);
+            intervalInMinutes = (intervalDays * 24 + intervalHours) * 60 + intervalMinutes;
+        }
+
+        RangerValiditySchedule getValiditySchedule() {
+            return new RangerValiditySchedule("20170101-00:00", "21000101-00:00", null, Collections.singletonList(new RangerValidityRecurrence(
+                    new RangerValidityRecurrence.RecurrenceSchedule(fieldValues[0], fieldValues[1], fieldValues[2], fieldValues[3], fieldValues[4], fieldValues[5]), interval)));
+        }
+
+        boolean isApplicableInMinute(long localMinute) {
+            long epochMinute = getClosestPastEpochMinute(localMinute);
+
+            return epochMinute <= localMinute && localMinute < epochMinute + intervalInMinutes;
+        }
+
+        // Closest scheduled minute and hour, looked up as the evaluator does, on the closest scheduled day up to that of the hour
+        long getClosestPastEpochMinute(long localMinute) {
+            long epochDay = Math.floorDiv(localMinute, 24 * 60L);
+            int minuteOfDay = (int) (localMinute - epochDay * 24 * 60);
+            int minute = getClosestValue(minutes, minuteOfDay % 60);
+            int hour = getClosestValue(hours, minuteOfDay / 60 - (minute < 0 ? 1 : 0));
+
+            if (hour < 0) {
+                epochDay--;
+            }
+            for (long firstEpochDay = toEpochDay(2017, Calendar.JANUARY, 1); epochDay >= firstEpochDay; epochDay--) {
+                if (isScheduledDay(epochDay)) {
+                    return epochDay * 24 * 60 + (hour < 0 ? ~hour : hour) * 60 + (minute < 0 ? ~minute : minute);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        // Whether the closest past epoch is on an earlier day, as the hour lookup borrowed one
+        boolean isHourBorrowed(long localMinute) {
+            int minuteOfDay = (int) Math.floorMod(localMinute, 24 * 60L);
+
+            return getClosestValue(hours, minuteOfDay / 60 - (getClosestValue(minutes, minuteOfDay % 60) < 0 ? 1 : 0)) < 0;
+        }
+
+        boolean isEveryMonthAndYear() {
+            return RangerValidityRecurrence.RecurrenceSchedule.WILDCARD.equals(fieldValues[4]) && RangerValidityRecurrence.RecurrenceSchedule.WILDCARD.equals(fieldValues[5]);
+        }
+
+        // Closest scheduled value up to the given one; else the complement of the last one, as it borrows from the next field
+        private static int getClosestValue(boolean[] scheduled, int value) {
+            for (int i = value; i >= 0; i--) {
+                if (scheduled[i]) {
+                    return i;
+                }
+            }
+            for (int i = scheduled.length - 1; ; i--) {
+                if (scheduled[i]) {
+                    return ~i;
+                }
+            }
+        }
+
+        private static long toEpochDay(int year, int month, int dayOfMonth) {
+            Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+
+            calendar.clear();
+            calendar.set(year, month, dayOfMonth);
+
+            return Math.floorDiv(calendar.getTimeInMillis(), 24 * 60 * 60 * 1000L);
+        }
+
+        private boolean isScheduledDay(long epochDay) {
+            calendar.setTimeInMillis(epochDay * 24 * 60 * 60 * 1000L);
+
+            return months[calendar.get(Calendar.MONTH) + 1] && years[calendar.get(Calendar.YEAR)]
+                    && ((daysOfMonth != null && daysOfMonth[calendar.get(Calendar.DAY_OF_MONTH)]) || (daysOfWeek != null && daysOfWeek[calendar.get(Calendar.DAY_OF_WEEK)]));
+        }
+
+        // A wildcard, a range or up to three values
+        private static String getFieldValue(Random random, boolean[] scheduled, int minimum, int maximum, boolean isRangeAllowed) {
+            final String ret;
+            int kind = isRangeAllowed ? random.nextInt(4) : 2;
+
+            if (kind == 0) {
+                Arrays.fill(scheduled, minimum, maximum + 1, true);
+                ret = RangerValidityRecurrence.RecurrenceSchedule.WILDCARD;
+            } else if (kind == 1) {
+                int lower = minimum + random.nextInt(maximum - minimum), upper = lower + 1 + random.nextInt(maximum - lower);
+
+                Arrays.fill(scheduled, lower, upper + 1, true);
+                ret = lower + "-" + upper;
+            } else {
+                List<String> values = new ArrayList<>();
+
+                for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                    int value = minimum + random.nextInt(maximum - minimum + 1);
+
+                    if (!scheduled[value]) {
+                        scheduled[value] = true;
+                        values.add(Integer.toString(value));
+                    }
+                }
+                ret = StringUtils.join(values, ",");
+            }
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(fieldValues) + ", intervalInMinutes=" + intervalInMinutes;
+        }
+    }
+
+    // Schedules of the valid-and-applicable test cases, validated, with the access times of their test cases
+    private List<ScheduleFixture> getScheduleFixtures() {
+        List<ScheduleFixture> ret = new ArrayList<>();
+
+        for (TestCase testCase : getTestCases("/validity-schedules-valid-and-applicable.json")) {
+            for (RangerValiditySchedule validitySchedule : testCase.validitySchedules) {
+                ScheduleFixture fixture = new ScheduleFixture();
+
+                fixture.index = ret.size();
+                fixture.testCaseName = testCase.name;
+                fixture.validatedSchedule = new RangerValidityScheduleValidator(validitySchedule).validate(new ArrayList<ValidationFailureDetails>());
+                fixture.accessTime = testCase.accessTime.getTime();
+                ret.add(fixture);
+            }
+        }
+        return ret;
+    }
+
+    /*
+    Asserts that the applicability found by the candidate made for each schedule fixture agrees with evaluate() of the given
+    engine, at times stepped from the fixture's access time + from to its access time + to. With CALENDAR, evaluation within
+    the first second of a minute depends on the millisecond-of-second of the clock, so times there are moved to its end.
+     */
+    private void assertAgreesWithEvaluate(RangerValidityScheduleEvaluator.EvaluationEngine engine, long from, long to, long step, Function<ScheduleFixture, LongPredicate> candidates) {
+        for (ScheduleFixture fixture : getScheduleFixtures()) {
+            RangerValidityScheduleEvaluator reference = new RangerValidityScheduleEvaluator(fixture.validatedSchedule, engine);
+            LongPredicate candidate = candidates.apply(fixture);
+
+            for (long time = fixture.accessTime + from; time < fixture.accessTime + to; time += step) {
+                long sinceMinuteStart = Math.floorMod(time, 60 * 1000L);
+                long evaluationTime = engine == RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR && sinceMinuteStart < 1000L ? time - sinceMinuteStart + 1000L : time;
+
+                assertEquals("testCase:[" + fixture.testCaseName + "], engine:[" + engine + "], time:[" + new Date(evaluationTime) + "]", reference.evaluate(evaluationTime), candidate.test(evaluationTime));
+            }
+        }
+    }
+
+    private void readAndRunTests(String testFileName) {
+        readAndRunTests(testFileName, RangerValidityScheduleEvaluator.EvaluationEngine.CALENDAR);
+    }
 
-    private void readAndRunTests(String testFileName)
+    private void readAndRunTests(String testFileName, RangerValidityScheduleEvaluator.EvaluationEngine engine)
     {
         List<TestCase> testCases = getTestCases(testFileName);
 
@@ -255,7 +1944,7 @@ public class AppTest
                 }
                 if (isValid) {
                     for (RangerValiditySchedule validSchedule : validatedSchedules) {
-                        isApplicable = new RangerValidityScheduleEvaluator(validSchedule).isApplicable(testCase.accessTime.getTime());
+                        isApplicable = new RangerValidityScheduleEvaluator(validSchedule, engine).isApplicable(testCase.accessTime.getTime());
                         if (isApplicable) {
                             break;
                         }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ranger.plugin.model.validation.ValidationFailureDetails;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flight Recorder events of validity schedules; built with ValidityScheduleFlightRecorderEvents, by the jfr profile.
+ */
+public class ValidityScheduleFlightRecorderTest extends TestCase {
+    public ValidityScheduleFlightRecorderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ValidityScheduleFlightRecorderTest.class );
+    }
+
+    public void testFlightRecorderEvents() throws Exception {
+        if (!ValidityScheduleFlightRecorder.isAvailable()) {
+            return;
+        }
+
+        RangerValiditySchedule schedule = new RangerValiditySchedule("20180101-00:00", "20190101-00:00", null,
+                Collections.singletonList(new RangerValidityRecurrence(new RangerValidityRecurrence.RecurrenceSchedule("0", "9", "*", "", "*", "*"),
+                        new RangerValidityRecurrence.ValidityInterval(0, 8, 0, null))));
+        long accessTime = new GregorianCalendar(2018, Calendar.MAY, 1, 9, 30).getTimeInMillis();
+
+        assertFalse(ValidityScheduleFlightRecorder.isEvaluationEnabled()); // disabled by default
+
+        Path file = Files.createTempFile("validity-schedule-events", ".jfr");
+        RangerValidityScheduleEvaluator evaluator;
+
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(ValidityScheduleFlightRecorder.EVALUATION_EVENT).withThreshold(Duration.ZERO);
+                recording.enable(ValidityScheduleFlightRecorder.VALIDATION_EVENT).withThreshold(Duration.ZERO);
+                recording.enable(ValidityScheduleFlightRecorder.COMPILE_EVENT).withThreshold(Duration.ZERO);
+                recording.start();
+
+                assertTrue(ValidityScheduleFlightRecorder.isEvaluationEnabled());
+
+                RangerValiditySchedule validatedSchedule = new RangerValidityScheduleValidator(schedule).validate(new ArrayList<ValidationFailureDetails>());
+
+                evaluator = new RangerValidityScheduleEvaluator(validatedSchedule);
+                assertTrue(evaluator.isApplicable(accessTime));
+                assertTrue(evaluator.isApplicable(accessTime + 60 * 1000L));
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            Map<String, List<RecordedEvent>> events = new HashMap<>();
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+
+                if (!events.containsKey(name)) {
+                    events.put(name, new ArrayList<RecordedEvent>());
+                }
+                events.get(name).add(event);
+            }
+
+            List<RecordedEvent> evaluations = events.get(ValidityScheduleFlightRecorder.EVALUATION_EVENT);
+
+            assertEquals(2, evaluations.size());
+            assertEquals(evaluator.getId(), evaluations.get(0).getLong("scheduleId"));
+            assertEquals(accessTime, evaluations.get(0).getInstant("accessTime").toEpochMilli());
+            assertTrue(evaluations.get(0).getBoolean("isApplicable"));
+            assertTrue(evaluations.get(0).getLong("searchSteps") > 0); // found the window
+            assertEquals(0, evaluations.get(1).getLong("searchSteps"));  // answered from it
+
+            List<RecordedEvent> validations = events.get(ValidityScheduleFlightRecorder.VALIDATION_EVENT);
+
+            assertEquals(1, validations.size());
+            assertEquals(0, validations.get(0).getInt("failures"));
+            assertTrue(validations.get(0).getBoolean("isValid"));
+
+            Set<String> sources = new HashSet<>();
+
+            for (RecordedEvent compile : events.get(ValidityScheduleFlightRecorder.COMPILE_EVENT)) {
+                sources.add(compile.getString("source"));
+                if (compile.getString("source").equals(RangerValidityScheduleEvaluator.class.getSimpleName())) {
+                    assertEquals(evaluator.getId(), compile.getLong("scheduleId"));
+                    assertEquals(1, compile.getInt("recurrences"));
+                }
+            }
+            // the evaluator takes the recurrence the validator compiled, without compiling it again
+            assertEquals(new HashSet<>(Arrays.asList("RangerValidityScheduleValidator", "RangerValidityScheduleEvaluator")), sources);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        assertFalse(ValidityScheduleFlightRecorder.isEvaluationEnabled());
+    }
+}